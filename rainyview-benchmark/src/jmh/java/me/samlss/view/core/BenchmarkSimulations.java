@@ -0,0 +1,52 @@
+package me.samlss.view.core;
+
+import java.util.Random;
+
+/**
+ * Builds the simulations the benchmarks run on, with the drop parameters of RainyView's defaults.
+ */
+final class BenchmarkSimulations {
+    final static float WIDTH = 1080; //a full-screen phone width
+    private final static float MIN_SPEED = 1;
+    private final static float MAX_SPEED = 5;
+
+    private BenchmarkSimulations() {
+    }
+
+    /**
+     * Create a simulation whose drops live about 1 / churn steps, i.e. the given fraction of
+     * the drops falls out of the bottom every step.
+     * */
+    static RainSimulation create(int dropCount, float slope, float churn) {
+        //the mean y speed per step is (min + max / 2) * |slope|, see RainSimulation#createRainDrop()
+        float meanSpeedY = (MIN_SPEED + MAX_SPEED / 2) * Math.abs(slope);
+        float height = meanSpeedY / churn;
+
+        RainSimulation simulation = new RainSimulation(dropCount);
+        simulation.setBounds(0, 0, WIDTH, height);
+        simulation.setRainDropCreationInterval(0);
+        simulation.setRainDropLength(10, 50);
+        simulation.setRainDropSpeed(MIN_SPEED, MAX_SPEED);
+        simulation.setRainDropSlope(slope);
+        simulation.setRandomSeed(42); //the same drops on every run
+        return simulation;
+    }
+
+    /**
+     * Spawn the drops up to the max number and scatter them over the rain's height,
+     * like a simulation that has been running for a while.
+     * */
+    static void populate(RainSimulation simulation, int dropCount, float height) {
+        RainDropStore drops = simulation.getRainDrops();
+        drops.clear();
+        while (drops.size() < dropCount) {
+            simulation.createRainDrop();
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < dropCount; i++) {
+            drops.y[i] = random.nextFloat() * height;
+            drops.prevY[i] = drops.y[i];
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package me.samlss.view.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating the line buffer that RainyView's drawRainDrops hands to Canvas#drawLines,
+ * and copying it out like the worker thread engine does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RainLinesBenchmark {
+    @Param({"30", "1000", "10000", "100000"})
+    int dropCount;
+
+    @Param({"-3", "1", "8"})
+    float slope;
+
+    private RainSimulation mSimulation;
+    private float[] mBuffer;
+    private float mAlpha;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkSimulations.create(dropCount, slope, 0.01f);
+        BenchmarkSimulations.populate(mSimulation, dropCount, (1 + 5 / 2f) * Math.abs(slope) / 0.01f);
+        mSimulation.updateRainDropState(RainSimulation.STEP_SECONDS);
+        mBuffer = new float[dropCount * 4];
+    }
+
+    @Benchmark
+    public void writeLines(Blackhole blackhole) {
+        //vary the interpolation factor, so the work can not be hoisted
+        mAlpha = mAlpha >= 1 ? 0 : mAlpha + 0.125f;
+        mSimulation.getRainDrops().writeLines(mAlpha);
+        blackhole.consume(mSimulation.getLines());
+    }
+
+    @Benchmark
+    public int emitLines() {
+        return mSimulation.emitLines(mBuffer, 0);
+    }
+}
@@ -0,0 +1,43 @@
+package me.samlss.view.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawning a full population of drops, the equivalent of RainyView's createRainDrop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RainSpawnBenchmark {
+    @Param({"30", "1000", "10000", "100000"})
+    int dropCount;
+
+    @Param({"-3", "1", "8"})
+    float slope;
+
+    private RainSimulation mSimulation;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkSimulations.create(dropCount, slope, 0.01f);
+    }
+
+    @Benchmark
+    public int spawn() {
+        RainDropStore drops = mSimulation.getRainDrops();
+        drops.clear();
+        for (int i = 0; i < dropCount; i++) {
+            mSimulation.createRainDrop();
+        }
+        return drops.size();
+    }
+}
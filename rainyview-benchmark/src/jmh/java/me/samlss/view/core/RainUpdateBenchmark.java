@@ -0,0 +1,50 @@
+package me.samlss.view.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulation step over a steady population, the equivalent of RainyView's updateRainDropState.
+ * The drops that fell out are spawned again, so the population and the churn stay constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RainUpdateBenchmark {
+    @Param({"30", "1000", "10000", "100000"})
+    int dropCount;
+
+    @Param({"0.001", "0.01", "0.1"})
+    float churn; //the fraction of the drops expiring per step
+
+    @Param({"-3", "1", "8"})
+    float slope;
+
+    private RainSimulation mSimulation;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkSimulations.create(dropCount, slope, churn);
+        float height = (1 + 5 / 2f) * Math.abs(slope) / churn;
+        BenchmarkSimulations.populate(mSimulation, dropCount, height);
+    }
+
+    @Benchmark
+    public int update() {
+        mSimulation.updateRainDropState(RainSimulation.STEP_SECONDS);
+
+        RainDropStore drops = mSimulation.getRainDrops();
+        while (drops.size() < dropCount) {
+            mSimulation.createRainDrop();
+        }
+        return drops.size();
+    }
+}
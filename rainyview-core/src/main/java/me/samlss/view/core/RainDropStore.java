@@ -0,0 +1,181 @@
+package me.samlss.view.core;
+
+import java.util.Arrays;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description Keeps all the living raindrops in parallel primitive arrays.
+ *
+ * Every drop is just an index, so there are no drop objects to allocate, iterate or pool,
+ * and a dead drop is removed in O(1) by moving the last drop into its slot.
+ * The direction of the slope is folded into the signs of {@link #speedX} and {@link #xLength}.
+ *
+ * The speeds are in pixels per second. {@link #prevX} and {@link #prevY} keep the positions
+ * before the last simulation step, so the rendering can interpolate between the last two states.
+ *
+ * {@link #lines} holds the drops' line segments (x0, y0, x1, y1 per drop), ready for
+ * Canvas#drawLines(float[], int, int, Paint) on Android, it is filled once per frame through {@link #writeLines(float)}, which also computes their bounds.
+ */
+final class RainDropStore {
+    private final static int MIN_CAPACITY = 16;
+
+    float[] speedX;  //the drops' x coordinate speed per second, signed by the slope direction
+    float[] speedY;  //the drops' y coordinate speed per second
+    float[] xLength; //the drops' x length, signed by the slope direction
+    float[] yLength; //the drops' y length
+    float[] x;       //the drops' start x
+    float[] y;       //the drops' start y
+    float[] prevX;   //the drops' start x before the last step
+    float[] prevY;   //the drops' start y before the last step
+    float[] lines;   //the drops' line segments, 4 floats per drop
+
+    //the bounds of the line segments, left > right if there are none
+    float linesLeft;
+    float linesTop;
+    float linesRight;
+    float linesBottom;
+
+    private int mSize;
+
+    long slotHitCount;  //the number of drops added into the existing capacity
+    long slotMissCount; //the number of drops that had to grow the arrays
+
+    RainDropStore(int initialCapacity) {
+        int capacity = Math.max(MIN_CAPACITY, initialCapacity);
+        speedX = new float[capacity];
+        speedY = new float[capacity];
+        xLength = new float[capacity];
+        yLength = new float[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        lines = new float[capacity * 4];
+    }
+
+    /**
+     * Add a drop, the arrays may be reallocated so the callers must not cache them across this call.
+     *
+     * @return the index of the new drop
+     * */
+    int add(float x, float y, float speedX, float speedY, float xLength, float yLength) {
+        if (mSize == this.x.length) {
+            grow(mSize + 1);
+            slotMissCount++;
+        } else {
+            slotHitCount++;
+        }
+
+        int index = mSize++;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.prevX[index] = x;
+        this.prevY[index] = y;
+        this.speedX[index] = speedX;
+        this.speedY[index] = speedY;
+        this.xLength[index] = xLength;
+        this.yLength[index] = yLength;
+        return index;
+    }
+
+    /**
+     * Remove the drop at the index by moving the last drop into its slot,
+     * so iterate backwards when removing while iterating.
+     * */
+    void remove(int index) {
+        int last = --mSize;
+        if (index != last) {
+            x[index] = x[last];
+            y[index] = y[last];
+            prevX[index] = prevX[last];
+            prevY[index] = prevY[last];
+            speedX[index] = speedX[last];
+            speedY[index] = speedY[last];
+            xLength[index] = xLength[last];
+            yLength[index] = yLength[last];
+        }
+    }
+
+    /**
+     * Write all the drops' line segments into {@link #lines}.
+     *
+     * @param alpha the interpolation factor between the previous (0) and the current (1) positions
+     * */
+    void writeLines(float alpha) {
+        float[] x = this.x;
+        float[] y = this.y;
+        float[] prevX = this.prevX;
+        float[] prevY = this.prevY;
+        float[] xLength = this.xLength;
+        float[] yLength = this.yLength;
+        float[] lines = this.lines;
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+
+        for (int i = 0, offset = 0; i < mSize; i++, offset += 4) {
+            float startX = prevX[i] + (x[i] - prevX[i]) * alpha;
+            float startY = prevY[i] + (y[i] - prevY[i]) * alpha;
+            float endX = startX + xLength[i];
+            float endY = startY + yLength[i];
+            lines[offset] = startX;
+            lines[offset + 1] = startY;
+            lines[offset + 2] = endX;
+            lines[offset + 3] = endY;
+
+            left = Math.min(left, Math.min(startX, endX));
+            right = Math.max(right, Math.max(startX, endX));
+            top = Math.min(top, startY); //the y length is never negative
+            bottom = Math.max(bottom, endY);
+        }
+
+        linesLeft = left;
+        linesTop = top;
+        linesRight = right;
+        linesBottom = bottom;
+    }
+
+    /**
+     * @return the number of floats of {@link #lines} in use
+     * */
+    int lineCount() {
+        return mSize * 4;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Make sure the store can hold the number of drops without growing while running.
+     * */
+    void ensureCapacity(int capacity) {
+        if (capacity > x.length) {
+            grow(capacity);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, x.length + (x.length >> 1));
+        speedX = Arrays.copyOf(speedX, capacity);
+        speedY = Arrays.copyOf(speedY, capacity);
+        xLength = Arrays.copyOf(xLength, capacity);
+        yLength = Arrays.copyOf(yLength, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        lines = Arrays.copyOf(lines, capacity * 4);
+    }
+}
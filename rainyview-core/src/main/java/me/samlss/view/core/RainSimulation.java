@@ -0,0 +1,620 @@
+package me.samlss.view.core;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description The raindrops' spawning and movement, without any Android dependency.
+ *
+ * Call {@link #step(long)} with the elapsed time, then draw the line segments of
+ * {@link #getLines()} or copy them out with {@link #emitLines(float[], int)}.
+ *
+ * The speeds are configured in pixels per {@link #STEP_NANOS} (20 millis), the unit of the speed attributes,
+ * {@link #setRainDropSpeed(float, float)} converts them to pixels per second once, which is what the drops store
+ * and move with, so the drops move by the elapsed time and not by the number of steps.
+ * In the analytic mode nothing is stepped, the drops are a function of the time, see {@link #setAnalytic(boolean)}.
+ * It is not thread safe, it must only be used by the thread that runs it.
+ */
+public final class RainSimulation {
+    /**
+     * Receives the simulation's phases, e.g. to forward them to a platform tracer.
+     * */
+    public interface Tracer {
+        void beginSection(String sectionName);
+        void endSection();
+    }
+
+    /**
+     * The random numbers the drops are spawned with, used by the simulation's thread only.
+     * */
+    public interface RandomSource {
+        /**
+         * @return a float in [0, 1)
+         * */
+        float nextFloat();
+
+        /**
+         * @return an int in [0, bound)
+         * @throws IllegalArgumentException if the bound is not positive
+         * */
+        int nextInt(int bound);
+    }
+
+    public final static String SECTION_CREATE_RAIN_DROP = "RainyView#createRainDrop";
+    public final static String SECTION_UPDATE_RAIN_DROP_STATE = "RainyView#updateRainDropState";
+    public final static String SECTION_WRITE_LINES = "RainyView#writeLines";
+
+    //The simulation steps at a fixed rate, the configured speeds are in pixels per step, the drops' in pixels per second
+    public final static long STEP_NANOS = 20 * 1000000L; //the fixed simulation step
+    private final static float STEPS_PER_SECOND = 1e9f / STEP_NANOS;
+    final static float STEP_SECONDS = STEP_NANOS / 1e9f;
+    private final static int MAX_STEPS_PER_ADVANCE = 5; //avoid spiraling after a long stall
+
+    private final RainDropStore mRainDrops; //all the rain drops
+    private long mSeed = System.nanoTime(); //the seed of the analytic drops
+    private RandomSource mOnlyRandom = new XorShiftRandom(mSeed); //the only random object
+
+    private boolean mAnalytic; //whether the drops are computed from mTimeNanos instead of stepped
+    private long mTimeNanos; //the time of the analytic drops
+    private long mLoopPeriodNanos; //the period the analytic drops repeat with, 0 to never repeat
+
+    //the rain bounds
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+
+    private int mRainDropMaxNumber;
+    private long mRainDropCreationIntervalNanos;
+    private int mRainDropMinLength;
+    private int mRainDropMaxLength;
+
+    private float mRainDropMaxSpeed; //in pixels per step, as configured
+    private float mRainDropMinSpeed; //in pixels per step, as configured
+    private float mRainDropSlope;
+
+    //derived from the parameters above once they are set, so spawning only multiplies
+    private boolean mParamsValid; //false if a minimum is greater than its maximum
+    private float mSpawnSpeedMin; //in pixels per second
+    private float mSpawnSpeedRange; //in pixels per second
+    private float mSpeedXFactor; //the x speed per speed, the sign of the slope
+    private float mSpeedYFactor; //the y speed per speed, |slope|
+    private float mXLengthFactor; //the x length per length, signed by the slope direction
+    private float mYLengthFactor; //the y length per length
+    private int mLengthRange;
+
+    private long mAccumulatorNanos; //the time not yet consumed by the fixed steps
+    private long mSpawnAccumulatorNanos; //the simulated time not yet consumed by spawning
+
+    private Tracer mTracer; //null if tracing is disabled
+    private long mSpawnCount; //the number of drops spawned since created
+    private long mDroppedStepCount; //the number of steps skipped after stalls since created
+
+    public RainSimulation(int rainDropMaxNumber) {
+        mRainDrops = new RainDropStore(rainDropMaxNumber);
+        mRainDropMaxNumber = rainDropMaxNumber;
+        updateDerivedParams();
+    }
+
+    /**
+     * Consume the elapsed time in fixed steps, then write the drops' line segments
+     * interpolated between the last two steps with the remaining time.
+     *
+     * @param elapsedNanos the time elapsed since the last call
+     * */
+    public void step(long elapsedNanos) {
+        if (mAnalytic) {
+            setTime(mTimeNanos + elapsedNanos);
+            return;
+        }
+
+        long maxAccumulatorNanos = MAX_STEPS_PER_ADVANCE * STEP_NANOS;
+        mAccumulatorNanos += elapsedNanos;
+        if (mAccumulatorNanos > maxAccumulatorNanos) {
+            mDroppedStepCount += (mAccumulatorNanos - maxAccumulatorNanos) / STEP_NANOS;
+            mAccumulatorNanos = maxAccumulatorNanos;
+        }
+
+        Tracer tracer = mTracer;
+        while (mAccumulatorNanos >= STEP_NANOS) {
+            if (tracer == null) {
+                spawnRainDrops();
+                updateRainDropState(STEP_SECONDS);
+            } else {
+                tracer.beginSection(SECTION_CREATE_RAIN_DROP);
+                spawnRainDrops();
+                tracer.endSection();
+
+                tracer.beginSection(SECTION_UPDATE_RAIN_DROP_STATE);
+                updateRainDropState(STEP_SECONDS);
+                tracer.endSection();
+            }
+            mAccumulatorNanos -= STEP_NANOS;
+        }
+
+        if (tracer != null) {
+            tracer.beginSection(SECTION_WRITE_LINES);
+        }
+        mRainDrops.writeLines(mAccumulatorNanos / (float) STEP_NANOS);
+        if (tracer != null) {
+            tracer.endSection();
+        }
+    }
+
+    /**
+     * Set the tracer to receive the simulation's phases, null to disable tracing.
+     * */
+    public void setTracer(Tracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Restart the random sequence from the seed, so the same seed and the same parameters
+     * spawn the same drops for the same steps, e.g. for reproducible screenshots.
+     * */
+    public void setRandomSeed(long seed) {
+        mSeed = seed;
+        mOnlyRandom = new XorShiftRandom(seed);
+    }
+
+    /**
+     * Set the source of the random numbers the drops are spawned with.
+     * */
+    public void setRandomSource(RandomSource randomSource) {
+        if (randomSource == null) {
+            throw new IllegalArgumentException("The random source cannot be null.");
+        }
+
+        mOnlyRandom = randomSource;
+    }
+
+    /**
+     * Get the number of drops spawned since this simulation was created
+     * */
+    public long getSpawnCount() {
+        return mSpawnCount;
+    }
+
+    /**
+     * Get the number of spawned drops that reused the existing capacity of the drop store
+     * */
+    public long getPoolHitCount() {
+        return mRainDrops.slotHitCount;
+    }
+
+    /**
+     * Get the number of spawned drops that had to grow the drop store
+     * */
+    public long getPoolMissCount() {
+        return mRainDrops.slotMissCount;
+    }
+
+    /**
+     * Get the number of fixed steps skipped to catch up after stalls
+     * */
+    public long getDroppedStepCount() {
+        return mDroppedStepCount;
+    }
+
+    /**
+     * Drop the not yet consumed time, e.g. when restarting after a pause.
+     * */
+    public void resetClock() {
+        mAccumulatorNanos = 0;
+    }
+
+    /**
+     * Remove all the raindrops.
+     * */
+    public void clear() {
+        mRainDrops.clear();
+        mAccumulatorNanos = 0;
+        mSpawnAccumulatorNanos = 0;
+    }
+
+    /**
+     * Replace the raindrops with the population they would have after spawning and falling for the duration,
+     * computed in one pass instead of stepping through it, so the rain starts as if it had been running.
+     * */
+    public void prewarm(long durationNanos) {
+        if (mAnalytic) {
+            return; //the analytic rain is always in its steady state
+        }
+
+        clear();
+
+        RainDropStore drops = mRainDrops;
+        long intervalNanos = mRainDropCreationIntervalNanos;
+        long maxAgeNanos = durationNanos;
+        float minSpeedY = mSpawnSpeedMin * mSpeedYFactor;
+        if (minSpeedY > 0) {
+            //no drop lives longer than the slowest one takes to fall through
+            float maxLifeSeconds = (mBottom - mTop + 2 * mRainDropMaxLength) / minSpeedY;
+            maxAgeNanos = Math.min(maxAgeNanos, (long) (maxLifeSeconds * 1e9f));
+        }
+
+        //spawn from the youngest to the oldest, the older ones are the first to have fallen out
+        for (int k = 0; drops.size() < mRainDropMaxNumber; k++) {
+            long ageNanos;
+            if (intervalNanos > 0) {
+                ageNanos = k * intervalNanos;
+                if (ageNanos > maxAgeNanos) {
+                    break;
+                }
+            } else {
+                if (k >= mRainDropMaxNumber) {
+                    break;
+                }
+                ageNanos = (long) (mOnlyRandom.nextFloat() * maxAgeNanos); //all at once, at random ages
+            }
+
+            int size = drops.size();
+            createRainDrop();
+            if (drops.size() == size) {
+                break; //nothing can be spawned
+            }
+
+            int i = size;
+            float ageSeconds = ageNanos / 1e9f;
+            drops.x[i] += drops.speedX[i] * ageSeconds;
+            drops.y[i] += drops.speedY[i] * ageSeconds;
+            drops.prevX[i] = drops.x[i];
+            drops.prevY[i] = drops.y[i];
+            if (drops.y[i] - drops.yLength[i] > mBottom) {
+                drops.remove(i);
+            }
+        }
+
+        drops.writeLines(1);
+    }
+
+    /**
+     * Set whether to compute the drops from the time instead of stepping them.
+     *
+     * Every drop is then a pure function of its spawn index: its spawn time is the index times the creation
+     * interval, its origin, speed and length are hashed from the index and the seed, and it is alive until
+     * its analytic crossing of the bottom. So any time can be drawn directly, backwards too, and two simulations
+     * with the same seed and parameters show the same drops at the same time.
+     *
+     * The rain has always been falling in this mode, it is never empty at the start.
+     * The max number lowers the spawn rate so that about that many drops are alive, and caps them.
+     * Nothing is spawned while the slope is 0, as such drops would never leave the rain.
+     * */
+    public void setAnalytic(boolean analytic) {
+        if (mAnalytic == analytic) {
+            return;
+        }
+
+        mAnalytic = analytic;
+        mRainDrops.clear();
+        if (analytic) {
+            setTime(mTimeNanos);
+        }
+    }
+
+    public boolean isAnalytic() {
+        return mAnalytic;
+    }
+
+    /**
+     * Move the analytic drops to the time and write their line segments, see {@link #setAnalytic(boolean)}.
+     * Does nothing but record the time if the simulation is not analytic.
+     * */
+    public void setTime(long timeNanos) {
+        mTimeNanos = timeNanos;
+        if (!mAnalytic) {
+            return;
+        }
+
+        Tracer tracer = mTracer;
+        if (tracer != null) {
+            tracer.beginSection(SECTION_UPDATE_RAIN_DROP_STATE);
+        }
+        computeAnalyticDrops(timeNanos);
+        if (tracer != null) {
+            tracer.endSection();
+        }
+
+        if (tracer != null) {
+            tracer.beginSection(SECTION_WRITE_LINES);
+        }
+        mRainDrops.writeLines(1);
+        if (tracer != null) {
+            tracer.endSection();
+        }
+    }
+
+    /**
+     * Get the time of the analytic drops
+     * */
+    public long getTime() {
+        return mTimeNanos;
+    }
+
+    /**
+     * Make the analytic drops repeat seamlessly with the period, 0 to never repeat. Default is 0.
+     * The creation interval is rounded so that a whole number of drops is spawned per period.
+     * */
+    public void setLoopPeriod(long loopPeriodNanos) {
+        mLoopPeriodNanos = Math.max(0, loopPeriodNanos);
+    }
+
+    public long getLoopPeriod() {
+        return mLoopPeriodNanos;
+    }
+
+    private void computeAnalyticDrops(long timeNanos) {
+        RainDropStore drops = mRainDrops;
+        drops.clear();
+
+        int maxNumber = mRainDropMaxNumber;
+        float width = mRight - mLeft;
+        float height = mBottom - mTop;
+        if (maxNumber <= 0 || width <= 0 || height <= 0 || mSpeedYFactor <= 0 || !mParamsValid) {
+            return;
+        }
+
+        //thin the spawns out so that about the max number of drops are alive at a time
+        float meanSpeedY = (mSpawnSpeedMin + mSpawnSpeedRange / 2) * mSpeedYFactor;
+        float meanLength = (mRainDropMinLength + mRainDropMaxLength) / 2f;
+        long meanLifeNanos = (long) ((height + 2 * meanLength * mYLengthFactor) / meanSpeedY * 1e9f);
+        long intervalNanos = Math.max(Math.max(mRainDropCreationIntervalNanos, meanLifeNanos / maxNumber), 1);
+
+        //drop k + dropsPerLoop is drop k again, one period later
+        long dropsPerLoop = 0;
+        if (mLoopPeriodNanos > 0) {
+            dropsPerLoop = Math.max(1, Math.round((double) mLoopPeriodNanos / intervalNanos));
+            intervalNanos = Math.max(1, mLoopPeriodNanos / dropsPerLoop);
+        }
+
+        //older drops than a few times the mean population's span are so rare they are not looked for
+        long maxAgeNanos = 4L * maxNumber * intervalNanos;
+        float minSpeedY = mSpawnSpeedMin * mSpeedYFactor;
+        if (minSpeedY > 0) {
+            long maxLifeNanos = (long) ((height + 2 * mRainDropMaxLength) / minSpeedY * 1e9f);
+            maxAgeNanos = Math.min(maxAgeNanos, maxLifeNanos);
+        }
+
+        //from the youngest to the oldest
+        long newest = floorDiv(timeNanos, intervalNanos);
+        long oldest = floorDiv(timeNanos - maxAgeNanos, intervalNanos);
+        for (long k = newest; k >= oldest && drops.size() < maxNumber; k--) {
+            float ageSeconds = (timeNanos - k * intervalNanos) / 1e9f;
+
+            long index = dropsPerLoop > 0 ? k - floorDiv(k, dropsPerLoop) * dropsPerLoop : k;
+            long bits = XorShiftRandom.mix(mSeed + index * 0x9E3779B97F4A7C15L); //the index-th splitmix64 output
+            float speed = mSpawnSpeedMin + XorShiftRandom.toFloat(bits) * mSpawnSpeedRange;
+            bits = XorShiftRandom.mix(bits);
+            int rainDropLength = mRainDropMinLength + (int) (XorShiftRandom.toFloat(bits) * mLengthRange);
+            bits = XorShiftRandom.mix(bits);
+            float x0 = mLeft + XorShiftRandom.toFloat(bits) * width;
+
+            float yLength = rainDropLength * mYLengthFactor;
+            float y = mTop - yLength + speed * mSpeedYFactor * ageSeconds;
+            if (y - yLength > mBottom) {
+                continue; //fallen out
+            }
+
+            float x = x0 + speed * mSpeedXFactor * ageSeconds;
+            drops.add(x, y, speed * mSpeedXFactor, speed * mSpeedYFactor, rainDropLength * mXLengthFactor, yLength);
+        }
+    }
+
+    /**
+     * {@link Math#floorDiv(long, long)} is not in java 7
+     * */
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+
+    RainDropStore getRainDrops() {
+        return mRainDrops;
+    }
+
+    /**
+     * Get the number of the living raindrops
+     * */
+    public int getDropCount() {
+        return mRainDrops.size();
+    }
+
+    /**
+     * Get the line segments written by the last {@link #step(long)}, 4 floats (x0, y0, x1, y1) per drop,
+     * only the first {@link #getLineCount()} floats are in use. The array may change after the next step.
+     * */
+    public float[] getLines() {
+        return mRainDrops.lines;
+    }
+
+    /**
+     * Get the number of floats of {@link #getLines()} in use
+     * */
+    public int getLineCount() {
+        return mRainDrops.lineCount();
+    }
+
+    /**
+     * Copy the line segments written by the last {@link #step(long)} into the buffer.
+     *
+     * @return the number of floats written
+     * @throws IndexOutOfBoundsException if the buffer is too small, see {@link #getLineCount()}
+     * */
+    public int emitLines(float[] buffer, int offset) {
+        int lineCount = mRainDrops.lineCount();
+        System.arraycopy(mRainDrops.lines, 0, buffer, offset, lineCount);
+        return lineCount;
+    }
+
+    /**
+     * Get the bounds of the line segments written by the last {@link #step(long)} into the out array
+     * as left, top, right, bottom.
+     *
+     * @return false if there is no line segment
+     * */
+    public boolean getLineBounds(float[] out) {
+        if (mRainDrops.isEmpty()) {
+            return false;
+        }
+
+        out[0] = mRainDrops.linesLeft;
+        out[1] = mRainDrops.linesTop;
+        out[2] = mRainDrops.linesRight;
+        out[3] = mRainDrops.linesBottom;
+        return true;
+    }
+
+    /**
+     * Spawn the raindrops due in one step at the creation rate, all of them at once.
+     * The time is the simulated time, so the rate neither depends on the wall clock nor on the frame rate,
+     * and an interval shorter than a step spawns several drops per step.
+     * */
+    private void spawnRainDrops() {
+        int room = mRainDropMaxNumber - mRainDrops.size();
+        long intervalNanos = mRainDropCreationIntervalNanos;
+
+        int count;
+        if (intervalNanos <= 0) {
+            count = room; //no interval, fill up at once
+        } else {
+            mSpawnAccumulatorNanos += STEP_NANOS;
+            long due = mSpawnAccumulatorNanos / intervalNanos;
+            mSpawnAccumulatorNanos -= due * intervalNanos;
+            count = (int) Math.min(due, room); //the drops that do not fit are not owed later
+        }
+
+        for (int i = 0; i < count; i++) {
+            createRainDrop();
+        }
+    }
+
+    /**
+     * Now create a random raindrop.
+     * Package-private for the benchmarks, like {@link #updateRainDropState(float)}.
+     * */
+    void createRainDrop() {
+        if (mRainDrops.size() >= mRainDropMaxNumber
+                || mRight <= mLeft || mBottom <= mTop) {
+            return;
+        }
+
+        if (!mParamsValid){
+            throw new IllegalArgumentException("The minimum value cannot be greater than the maximum value.");
+        }
+
+        float speed = mSpawnSpeedMin + mOnlyRandom.nextFloat() * mSpawnSpeedRange;
+        float speedX = speed * mSpeedXFactor;
+        float speedY = speed * mSpeedYFactor;
+
+        int rainDropLength = mRainDropMinLength + (mLengthRange > 0 ? mOnlyRandom.nextInt(mLengthRange) : 0);
+        float xLength = rainDropLength * mXLengthFactor;
+        float yLength = rainDropLength * mYLengthFactor;
+
+        float x = mLeft + mOnlyRandom.nextInt((int) (mRight - mLeft)); //random x coordinate
+        float y = mTop - yLength; //the fixed y coordinate
+
+        mRainDrops.add(x, y, speedX, speedY, xLength, yLength);
+        mSpawnCount++;
+    }
+
+    /**
+     * Update all the raindrops state
+     * */
+    void updateRainDropState(float deltaSeconds) {
+        RainDropStore drops = mRainDrops;
+        float[] x = drops.x;
+        float[] y = drops.y;
+        float[] prevX = drops.prevX;
+        float[] prevY = drops.prevY;
+        float[] speedX = drops.speedX;
+        float[] speedY = drops.speedY;
+        float[] yLength = drops.yLength;
+        float bottom = mBottom;
+
+        //iterate backwards, the removed drop's slot is filled with the last drop
+        for (int i = drops.size() - 1; i >= 0; i--) {
+            if (y[i] - yLength[i] > bottom) {
+                drops.remove(i);
+            } else {
+                prevX[i] = x[i];
+                prevY[i] = y[i];
+                x[i] += speedX[i] * deltaSeconds;
+                y[i] += speedY[i] * deltaSeconds;
+            }
+        }
+    }
+
+    /**
+     * Set the rect the raindrops fall in
+     * */
+    public void setBounds(float left, float top, float right, float bottom) {
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    /**
+     * Set the number of raindrops that can coexist at the same time
+     * */
+    public void setRainDropMaxNumber(int rainDropMaxNumber) {
+        mRainDropMaxNumber = rainDropMaxNumber;
+        mRainDrops.ensureCapacity(rainDropMaxNumber);
+    }
+
+    /**
+     * Set the creation interval of the raindrops in millis, 0 to spawn up to the max number at once.
+     * An interval shorter than {@link #STEP_NANOS} spawns several drops per step.
+     * */
+    public void setRainDropCreationInterval(int rainDropCreationInterval) {
+        mRainDropCreationIntervalNanos = rainDropCreationInterval * 1000000L;
+    }
+
+    /**
+     * Set the min and max length of the raindrops in pixels
+     * */
+    public void setRainDropLength(int rainDropMinLength, int rainDropMaxLength) {
+        mRainDropMinLength = rainDropMinLength;
+        mRainDropMaxLength = rainDropMaxLength;
+        updateDerivedParams();
+    }
+
+    /**
+     * Set the min and max speed of the raindrops in pixels per step, i.e. per 20 millis like the speed attributes.
+     * They are converted to pixels per second here, by {@code STEPS_PER_SECOND}.
+     * */
+    public void setRainDropSpeed(float rainDropMinSpeed, float rainDropMaxSpeed) {
+        mRainDropMinSpeed = rainDropMinSpeed;
+        mRainDropMaxSpeed = rainDropMaxSpeed;
+        updateDerivedParams();
+    }
+
+    /**
+     * Set the slope of the raindrops
+     * */
+    public void setRainDropSlope(float rainDropSlope) {
+        mRainDropSlope = rainDropSlope;
+        updateDerivedParams();
+    }
+
+    /**
+     * Compute everything spawning needs from the parameters, once per change instead of once per drop.
+     * An invalid range is only reported when a drop is spawned, so the min and max may be set one by one.
+     * */
+    private void updateDerivedParams() {
+        mParamsValid = mRainDropMinLength <= mRainDropMaxLength
+                && mRainDropMinSpeed <= mRainDropMaxSpeed;
+
+        //the speed is min + random * max, as it always was, converted from pixels per step to pixels per second
+        mSpawnSpeedMin = mRainDropMinSpeed * STEPS_PER_SECOND;
+        mSpawnSpeedRange = mRainDropMaxSpeed * STEPS_PER_SECOND;
+        mLengthRange = mRainDropMaxLength - mRainDropMinLength;
+
+        //fold the slope direction into the signs, see {@link RainDropStore}
+        double angle = Math.atan(mRainDropSlope);
+        mSpeedXFactor = mRainDropSlope < 0 ? -1 : 1;
+        mSpeedYFactor = Math.abs(mRainDropSlope);
+        mXLengthFactor = (float) Math.abs(Math.cos(angle)) * (mRainDropSlope <= 0 ? -1 : 1);
+        mYLengthFactor = (float) Math.abs(Math.sin(angle));
+    }
+}
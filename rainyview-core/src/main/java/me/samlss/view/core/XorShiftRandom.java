@@ -0,0 +1,67 @@
+package me.samlss.view.core;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description The default {@link RainSimulation.RandomSource}, a xorshift64* generator.
+ *
+ * Unlike {@link java.util.Random} it is not synchronized and has no atomic state,
+ * it must only be used by one thread. The same seed always produces the same sequence.
+ */
+final class XorShiftRandom implements RainSimulation.RandomSource {
+    private long mState; //never 0
+
+    XorShiftRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Restart the sequence, the seed is scrambled with splitmix64 so close seeds give unrelated sequences.
+     * */
+    void setSeed(long seed) {
+        long z = mix(seed);
+        mState = z != 0 ? z : 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * The splitmix64 step, a stateless hash from a long to an unrelated long.
+     * */
+    static long mix(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Get a float in [0, 1) from the high 24 bits of the long.
+     * */
+    static float toFloat(long bits) {
+        return (bits >>> 40) * 0x1.0p-24f;
+    }
+
+    private long nextLong() {
+        long x = mState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mState = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    @Override
+    public float nextFloat() {
+        return toFloat(nextLong());
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+
+        //scale the high 31 bits into [0, bound) without a division
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+}
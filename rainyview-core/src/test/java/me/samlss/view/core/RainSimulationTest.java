@@ -0,0 +1,155 @@
+package me.samlss.view.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests of {@link RainSimulation}, which run on a plain JVM.
+ */
+public class RainSimulationTest {
+    private final static float LEFT = 100;
+    private final static float TOP = 100;
+    private final static float RIGHT = 300;
+    private final static float BOTTOM = 400;
+
+    private RainSimulation mSimulation;
+
+    @Before
+    public void setUp() {
+        mSimulation = new RainSimulation(50);
+        mSimulation.setBounds(LEFT, TOP, RIGHT, BOTTOM);
+        mSimulation.setRainDropCreationInterval(20); //one drop per step
+        mSimulation.setRainDropLength(10, 50);
+        mSimulation.setRainDropSpeed(1, 5);
+        mSimulation.setRainDropSlope(-3);
+    }
+
+    @Test
+    public void spawnsOneDropPerStepUpToTheMaxNumber() {
+        mSimulation.step(RainSimulation.STEP_NANOS * 3);
+        assertEquals(3, mSimulation.getDropCount());
+
+        for (int i = 0; i < 100; i++) {
+            mSimulation.step(RainSimulation.STEP_NANOS);
+        }
+        assertTrue(mSimulation.getDropCount() <= 50);
+    }
+
+    @Test
+    public void spawnsSeveralDropsPerStepForShortIntervals() {
+        mSimulation.setRainDropCreationInterval(5);
+        mSimulation.step(RainSimulation.STEP_NANOS * 2);
+        assertEquals(8, mSimulation.getDropCount());
+
+        mSimulation.clear();
+        mSimulation.setRainDropCreationInterval(30);
+        mSimulation.step(RainSimulation.STEP_NANOS * 3);
+        assertEquals(2, mSimulation.getDropCount());
+    }
+
+    @Test
+    public void emitsFourFloatsPerDrop() {
+        for (int i = 0; i < 10; i++) {
+            mSimulation.step(RainSimulation.STEP_NANOS);
+        }
+
+        float[] buffer = new float[mSimulation.getLineCount() + 8];
+        int count = mSimulation.emitLines(buffer, 8);
+        assertEquals(mSimulation.getDropCount() * 4, count);
+
+        for (int i = 8; i < 8 + count; i += 4) {
+            assertTrue(buffer[i + 1] >= TOP - 50); //spawned above the top by at most the max length
+            assertTrue(buffer[i + 3] >= buffer[i + 1]); //the y length is never negative
+        }
+    }
+
+    @Test
+    public void dropsExpireBelowTheBottom() {
+        mSimulation.step(RainSimulation.STEP_NANOS);
+        mSimulation.setRainDropMaxNumber(0);
+
+        //the slowest drop falls 3 pixels per step
+        for (int i = 0; i < 200; i++) {
+            mSimulation.step(RainSimulation.STEP_NANOS);
+        }
+        assertEquals(0, mSimulation.getDropCount());
+        assertFalse(mSimulation.getLineBounds(new float[4]));
+    }
+
+    @Test
+    public void sameSeedSpawnsSameDrops() {
+        RainSimulation other = new RainSimulation(50);
+        other.setBounds(LEFT, TOP, RIGHT, BOTTOM);
+        other.setRainDropCreationInterval(20); //one drop per step
+        other.setRainDropLength(10, 50);
+        other.setRainDropSpeed(1, 5);
+        other.setRainDropSlope(-3);
+
+        mSimulation.setRandomSeed(42);
+        other.setRandomSeed(42);
+        for (int i = 0; i < 20; i++) {
+            mSimulation.step(RainSimulation.STEP_NANOS);
+            other.step(RainSimulation.STEP_NANOS);
+        }
+
+        assertEquals(mSimulation.getLineCount(), other.getLineCount());
+        for (int i = 0; i < mSimulation.getLineCount(); i++) {
+            assertEquals(mSimulation.getLines()[i], other.getLines()[i], 0f);
+        }
+    }
+
+    @Test
+    public void prewarmFillsTheRainInOnePass() {
+        mSimulation.prewarm(5000 * 1000000L);
+        assertTrue(mSimulation.getDropCount() > 25);
+
+        float[] lines = mSimulation.getLines();
+        for (int i = 0; i < mSimulation.getLineCount(); i += 4) {
+            assertTrue(lines[i + 1] - (lines[i + 3] - lines[i + 1]) <= BOTTOM); //not expired
+        }
+    }
+
+    @Test
+    public void analyticDropsDependOnlyOnTheTime() {
+        mSimulation.setRandomSeed(42);
+        mSimulation.setAnalytic(true);
+        mSimulation.setTime(3000000000L);
+        assertTrue(mSimulation.getDropCount() > 0);
+        float[] lines = Arrays.copyOf(mSimulation.getLines(), mSimulation.getLineCount());
+
+        mSimulation.step(RainSimulation.STEP_NANOS * 7);
+        mSimulation.setTime(3000000000L); //seek back
+        assertEquals(lines.length, mSimulation.getLineCount());
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], mSimulation.getLines()[i], 0f);
+        }
+    }
+
+    @Test
+    public void loopingAnalyticDropsRepeatAfterThePeriod() {
+        mSimulation.setAnalytic(true);
+        mSimulation.setLoopPeriod(2000000000L);
+        mSimulation.setTime(500000000L);
+        float[] lines = Arrays.copyOf(mSimulation.getLines(), mSimulation.getLineCount());
+
+        mSimulation.setTime(2500000000L);
+        assertEquals(lines.length, mSimulation.getLineCount());
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], mSimulation.getLines()[i], 0.01f);
+        }
+    }
+
+    @Test
+    public void clearRemovesAllDrops() {
+        mSimulation.step(RainSimulation.STEP_NANOS * 5);
+        mSimulation.clear();
+        assertEquals(0, mSimulation.getDropCount());
+        assertEquals(0, mSimulation.getLineCount());
+    }
+}
@@ -0,0 +1,308 @@
+package me.samlss.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.samlss.view.core.RainSimulation;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description One seamless loop of the rain rendered into frames, for {@link RainyView#ENGINE_MODE_BAKED}.
+ *
+ * The frames are alpha masks, so the rain color is applied when drawing and is not part of the {@link Key}.
+ * They are baked on a background thread and kept in a process-wide cache, bounded by its max bytes,
+ * so views of the same size and parameters share them. Must be used on the main thread.
+ *
+ * The max bytes are a soft budget, they only bound the cache: an evicted baked rain is kept alive
+ * by the views still drawing it, until they move on to another one or are released.
+ */
+final class BakedRain {
+    final static long LOOP_PERIOD_NANOS = 2000000000L; //the period of the baked rain, 2 seconds
+    private final static int FRAME_COUNT = 60; //the frames per period, 30 per second
+    private final static long FRAME_NANOS = LOOP_PERIOD_NANOS / FRAME_COUNT;
+    private final static int DEFAULT_CACHE_MAX_BYTES = 8 * 1024 * 1024; //the default memory cap of all the baked rains
+
+    interface Callback {
+        void onBaked(Key key, BakedRain bakedRain);
+    }
+
+    private static int sCacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+    private static int sCacheBytes; //the bytes of the baked rains in the cache
+    private final static LinkedHashMap<Key, BakedRain> sCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final static Map<Key, List<Callback>> sPendingCallbacks = new HashMap<>(); //the bakes in progress
+
+    private static Handler sBakeHandler; //runs the bakes on the background thread
+    private final static Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Bitmap[] mFrames;
+    private final float mLeft; //the frames' position in the view
+    private final float mTop;
+    private final int mByteCount;
+
+    private BakedRain(Bitmap[] frames, float left, float top, int byteCount) {
+        mFrames = frames;
+        mLeft = left;
+        mTop = top;
+        mByteCount = byteCount;
+    }
+
+    /**
+     * Draw the frame of the time, tinted with the paint's color.
+     * */
+    void draw(Canvas canvas, long timeNanos, Paint paint) {
+        long loopTimeNanos = timeNanos % LOOP_PERIOD_NANOS;
+        if (loopTimeNanos < 0) {
+            loopTimeNanos += LOOP_PERIOD_NANOS;
+        }
+
+        int frame = (int) Math.min(FRAME_COUNT - 1, loopTimeNanos / FRAME_NANOS);
+        canvas.drawBitmap(mFrames[frame], mLeft, mTop, paint);
+    }
+
+    /**
+     * Get the baked rain of the key from the cache, null if it is not baked yet or was evicted.
+     * */
+    static BakedRain get(Key key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * Whether the frames of the key fit in the cache at all
+     * */
+    static boolean fits(Key key) {
+        return getByteCount(key) <= sCacheMaxBytes;
+    }
+
+    /**
+     * Bake the rain of the key in the background, the callback is called on the main thread once it is done.
+     * A key being baked already is not baked twice.
+     * */
+    static void bake(final Key key, Callback callback) {
+        List<Callback> callbacks = sPendingCallbacks.get(key);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        sPendingCallbacks.put(key, callbacks);
+
+        if (sBakeHandler == null) {
+            HandlerThread thread = new HandlerThread("RainyView-baker", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sBakeHandler = new Handler(thread.getLooper());
+        }
+
+        sBakeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final BakedRain bakedRain = render(key);
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBaked(key, bakedRain);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Set the max bytes the cached baked rains may take, the least recently used ones are evicted beyond it.
+     * */
+    static void setCacheMaxBytes(int cacheMaxBytes) {
+        sCacheMaxBytes = Math.max(0, cacheMaxBytes);
+        trimCache();
+    }
+
+    static int getCacheMaxBytes() {
+        return sCacheMaxBytes;
+    }
+
+    private static void onBaked(Key key, BakedRain bakedRain) {
+        List<Callback> callbacks = sPendingCallbacks.remove(key);
+        if (bakedRain != null) {
+            BakedRain old = sCache.put(key, bakedRain);
+            if (old != null) {
+                sCacheBytes -= old.mByteCount;
+            }
+            sCacheBytes += bakedRain.mByteCount;
+            trimCache();
+        }
+
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                callback.onBaked(key, bakedRain);
+            }
+        }
+    }
+
+    /**
+     * Evict the least recently used baked rains until the cache fits its max bytes.
+     * The evicted frames are not recycled, a view may still be drawing them, so they are not counted any more
+     * although they are freed only once no view holds them.
+     * */
+    private static void trimCache() {
+        Iterator<BakedRain> iterator = sCache.values().iterator();
+        while (sCacheBytes > sCacheMaxBytes && iterator.hasNext()) {
+            sCacheBytes -= iterator.next().mByteCount;
+            iterator.remove();
+        }
+    }
+
+    private static int getByteCount(Key key) {
+        RectF clipRect = CloudGeometry.obtain(key.width, key.height).rainClipRect;
+        long bytes = (long) Math.ceil(clipRect.width()) * (long) Math.ceil(clipRect.height()) * FRAME_COUNT; //ALPHA_8
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    /**
+     * Render the frames of the key, on the background thread.
+     *
+     * @return null if there is nothing to bake or the bitmaps can not be allocated
+     * */
+    private static BakedRain render(Key key) {
+        CloudGeometry geometry = CloudGeometry.obtain(key.width, key.height);
+        RectF rainRect = geometry.rainRect;
+        RectF clipRect = geometry.rainClipRect;
+        int width = (int) Math.ceil(clipRect.width());
+        int height = (int) Math.ceil(clipRect.height());
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        RainSimulation simulation = new RainSimulation(key.rainDropMaxNumber);
+        simulation.setBounds(rainRect.left, rainRect.top, rainRect.right, rainRect.bottom);
+        simulation.setRainDropCreationInterval(key.rainDropCreationInterval);
+        simulation.setRainDropLength(key.rainDropMinLength, key.rainDropMaxLength);
+        simulation.setRainDropSpeed(key.rainDropMinSpeed, key.rainDropMaxSpeed);
+        simulation.setRainDropSlope(key.rainDropSlope);
+        simulation.setRandomSeed(key.randomSeed);
+        simulation.setLoopPeriod(LOOP_PERIOD_NANOS);
+        simulation.setAnalytic(true);
+
+        Paint paint = new Paint();
+        paint.setAntiAlias(key.antiAlias);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(key.rainDropSize);
+        paint.setColor(Color.BLACK); //only the alpha is kept
+
+        Bitmap[] frames = new Bitmap[FRAME_COUNT];
+        try {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                simulation.setTime(i * FRAME_NANOS);
+                frames[i] = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+                if (simulation.getLineCount() > 0) {
+                    Canvas canvas = new Canvas(frames[i]);
+                    canvas.translate(-clipRect.left, -clipRect.top);
+                    canvas.drawLines(simulation.getLines(), 0, simulation.getLineCount(), paint);
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            for (Bitmap frame : frames) {
+                if (frame != null) {
+                    frame.recycle();
+                }
+            }
+            return null;
+        }
+
+        return new BakedRain(frames, clipRect.left, clipRect.top, width * height * FRAME_COUNT);
+    }
+
+    /**
+     * Everything the frames depend on: the view's size and the raindrops' parameters.
+     * */
+    static final class Key {
+        final int width;
+        final int height;
+        final int rainDropMaxNumber;
+        final int rainDropCreationInterval;
+        final int rainDropMinLength;
+        final int rainDropMaxLength;
+        final int rainDropSize;
+        final float rainDropMinSpeed;
+        final float rainDropMaxSpeed;
+        final float rainDropSlope;
+        final boolean antiAlias;
+        final long randomSeed;
+
+        Key(int width, int height, int rainDropMaxNumber, int rainDropCreationInterval,
+            int rainDropMinLength, int rainDropMaxLength, int rainDropSize,
+            float rainDropMinSpeed, float rainDropMaxSpeed, float rainDropSlope,
+            boolean antiAlias, long randomSeed) {
+            this.width = width;
+            this.height = height;
+            this.rainDropMaxNumber = rainDropMaxNumber;
+            this.rainDropCreationInterval = rainDropCreationInterval;
+            this.rainDropMinLength = rainDropMinLength;
+            this.rainDropMaxLength = rainDropMaxLength;
+            this.rainDropSize = rainDropSize;
+            this.rainDropMinSpeed = rainDropMinSpeed;
+            this.rainDropMaxSpeed = rainDropMaxSpeed;
+            this.rainDropSlope = rainDropSlope;
+            this.antiAlias = antiAlias;
+            this.randomSeed = randomSeed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return width == key.width
+                    && height == key.height
+                    && rainDropMaxNumber == key.rainDropMaxNumber
+                    && rainDropCreationInterval == key.rainDropCreationInterval
+                    && rainDropMinLength == key.rainDropMinLength
+                    && rainDropMaxLength == key.rainDropMaxLength
+                    && rainDropSize == key.rainDropSize
+                    && Float.compare(rainDropMinSpeed, key.rainDropMinSpeed) == 0
+                    && Float.compare(rainDropMaxSpeed, key.rainDropMaxSpeed) == 0
+                    && Float.compare(rainDropSlope, key.rainDropSlope) == 0
+                    && antiAlias == key.antiAlias
+                    && randomSeed == key.randomSeed;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + rainDropMaxNumber;
+            result = 31 * result + rainDropCreationInterval;
+            result = 31 * result + rainDropMinLength;
+            result = 31 * result + rainDropMaxLength;
+            result = 31 * result + rainDropSize;
+            result = 31 * result + Float.floatToIntBits(rainDropMinSpeed);
+            result = 31 * result + Float.floatToIntBits(rainDropMaxSpeed);
+            result = 31 * result + Float.floatToIntBits(rainDropSlope);
+            result = 31 * result + (antiAlias ? 1 : 0);
+            result = 31 * result + (int) (randomSeed ^ (randomSeed >>> 32));
+            return result;
+        }
+    }
+}
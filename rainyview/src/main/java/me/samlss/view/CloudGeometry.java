@@ -0,0 +1,160 @@
+package me.samlss.view;
+
+import android.graphics.Matrix;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description The clouds and the rain area of a rainy view of a given size, and the clouds' animation.
+ *
+ * Computed once per size and never changed afterwards, so it can be shared with other threads
+ * and other views of the same size, but its paths and rects must not be modified.
+ * Get it with {@link #obtain(int, int)}, so views of the same size share one instance.
+ */
+final class CloudGeometry {
+    private final static float CLOUD_SCALE_RATIO = 0.85f;
+    private final static long LEFT_CLOUD_ANIMATION_DURATION = 1000; //the left cloud's one-way duration in millis
+    private final static long RIGHT_CLOUD_ANIMATION_DURATION = 800; //the right cloud's one-way duration in millis
+    private final static int CACHE_MAX_SIZE = 16; //the max number of sizes kept in the cache
+
+    //the most recently used geometries of the process, keyed by the size
+    private final static Map<Long, CloudGeometry> sCache = new LinkedHashMap<Long, CloudGeometry>(CACHE_MAX_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CloudGeometry> eldest) {
+            return size() > CACHE_MAX_SIZE;
+        }
+    };
+
+    final int width;
+    final int height;
+
+    //There are two clouds in this view, includes the left cloud & right cloud
+    final Path leftCloudPath = new Path(); //the left cloud's path
+    final Path rightCloudPath = new Path(); //the right cloud's path
+
+    final RectF rainRect = new RectF(); //the rain rect
+    final RectF rainClipRect = new RectF(); //the rain clip rect
+
+    //outset by one pixel for the anti-aliased edges
+    final RectF leftCloudBounds = new RectF(); //the left cloud's bounds without translation
+    final RectF rightCloudBounds = new RectF(); //the right cloud's bounds without translation
+
+    final float maxTranslationX; //The max translation x when do animation.
+
+    /**
+     * Get the geometry of the size, computed only if no view of this size has asked for it recently.
+     * Can be called from any thread.
+     * */
+    static CloudGeometry obtain(int w, int h) {
+        Long key = ((long) w << 32) | (h & 0xFFFFFFFFL);
+        synchronized (sCache) {
+            CloudGeometry geometry = sCache.get(key);
+            if (geometry == null) {
+                geometry = new CloudGeometry(w, h);
+                sCache.put(key, geometry);
+            }
+            return geometry;
+        }
+    }
+
+    private CloudGeometry(int w, int h) {
+        width = w;
+        height = h;
+
+        float centerX = w / 2; //view's center x coordinate
+        float minSize = Math.min(w, h); //get the min size
+
+        //************************compute left cloud**********************
+
+        float leftCloudWidth = minSize / 2.5f; //the width of cloud
+        float leftCloudBottomHeight = leftCloudWidth / 3f; //the bottom height of cloud
+        float leftCloudBottomRoundRadius = leftCloudBottomHeight; //the bottom round radius of cloud
+
+        float rightCloudTranslateX = leftCloudWidth * 2 / 3; //the distance of the cloud on the right
+        float leftCloudEndX = (w - leftCloudWidth - leftCloudWidth * CLOUD_SCALE_RATIO / 2) / 2 + leftCloudWidth; //the left cloud end x coordinate
+        float leftCloudEndY = h / 3; //clouds' end y coordinate
+
+        //add the bottom round rect
+        leftCloudPath.addRoundRect(new RectF(leftCloudEndX - leftCloudWidth, leftCloudEndY - leftCloudBottomHeight,
+                leftCloudEndX, leftCloudEndY), leftCloudBottomHeight, leftCloudBottomRoundRadius, Path.Direction.CW);
+
+        float leftCloudTopCenterY = leftCloudEndY - leftCloudBottomHeight;
+        float leftCloudRightTopCenterX = leftCloudEndX - leftCloudBottomRoundRadius;
+        float leftCloudLeftTopCenterX  = leftCloudEndX - leftCloudWidth + leftCloudBottomRoundRadius;
+
+        leftCloudPath.addCircle(leftCloudRightTopCenterX, leftCloudTopCenterY, leftCloudBottomRoundRadius * 3 / 4, Path.Direction.CW);
+        leftCloudPath.addCircle(leftCloudLeftTopCenterX, leftCloudTopCenterY, leftCloudBottomRoundRadius / 2, Path.Direction.CW);
+        //*******************************Done*****************************
+
+        //************************compute right cloud**********************
+        //The cloud on the right is CLOUD_SCALE_RATIO size of the left
+        float rightCloudCenterX = rightCloudTranslateX + centerX - leftCloudWidth / 2; //the right cloud center x
+
+        RectF calculateRect = new RectF();
+        leftCloudPath.computeBounds(calculateRect, false); //compute the left cloud's path bounds
+
+        Matrix computeMatrix = new Matrix();
+        computeMatrix.preTranslate(rightCloudTranslateX, -calculateRect.height() * (1 - CLOUD_SCALE_RATIO) / 2);
+        computeMatrix.postScale(CLOUD_SCALE_RATIO, CLOUD_SCALE_RATIO, rightCloudCenterX, leftCloudEndY);
+        leftCloudPath.transform(computeMatrix, rightCloudPath);
+
+        float left = calculateRect.left + leftCloudBottomRoundRadius;
+        rightCloudPath.computeBounds(calculateRect, false); //compute the right cloud's path bounds
+
+        float right = calculateRect.right;
+        float top   = calculateRect.bottom;
+        //************************compute right cloud**********************
+        rainRect.set(left, top, right, h * 3 / 4f); //compute the rect of rain...
+        rainClipRect.set(0, rainRect.top, w, rainRect.bottom);
+
+        leftCloudPath.computeBounds(leftCloudBounds, true);
+        leftCloudBounds.inset(-1, -1);
+        rightCloudPath.computeBounds(rightCloudBounds, true);
+        rightCloudBounds.inset(-1, -1);
+
+        maxTranslationX = leftCloudBottomRoundRadius / 2;
+    }
+
+    /**
+     * Get the left cloud's translation for the animator value of {@link #getLeftCloudAnimatorValue(long)}
+     * */
+    float getLeftCloudTranslationX(float leftCloudAnimatorValue) {
+        return maxTranslationX * leftCloudAnimatorValue;
+    }
+
+    /**
+     * Get the right cloud's translation for the animator value of {@link #getRightCloudAnimatorValue(long)}
+     * */
+    float getRightCloudTranslationX(float rightCloudAnimatorValue) {
+        return (maxTranslationX / 2) * rightCloudAnimatorValue;
+    }
+
+    /**
+     * The left cloud goes 0 -> 1 then reverses, infinitely.
+     * */
+    static float getLeftCloudAnimatorValue(long playTime) {
+        return reverseRepeatFraction(playTime, LEFT_CLOUD_ANIMATION_DURATION);
+    }
+
+    /**
+     * The right cloud goes 1 -> 0 then reverses, infinitely.
+     * */
+    static float getRightCloudAnimatorValue(long playTime) {
+        return 1 - reverseRepeatFraction(playTime, RIGHT_CLOUD_ANIMATION_DURATION);
+    }
+
+    /**
+     * The linear fraction of an infinitely repeated, reversing animation at the play time.
+     * */
+    private static float reverseRepeatFraction(long playTime, long duration){
+        long iteration = playTime / duration;
+        float fraction = (playTime % duration) / (float) duration;
+        return (iteration & 1) == 0 ? fraction : 1 - fraction;
+    }
+}
@@ -0,0 +1,83 @@
+package me.samlss.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description A cloud rasterized once into a bitmap, so a frame only blits it at the animated offset.
+ */
+final class CloudSprite {
+    private final static int BYTES_PER_PIXEL = 4; //ARGB_8888
+
+    private Bitmap mBitmap;
+    private final Rect mBounds = new Rect(); //the bitmap's bounds in the view
+    private final RectF mComputeRect = new RectF();
+
+    /**
+     * Rasterize the path with the paint, the bitmap is reused if its size is unchanged.
+     *
+     * @param maxBytes the max bytes the bitmap may take
+     * @return false if the sprite is not usable, e.g. the path is empty or the bitmap would exceed the max bytes
+     * */
+    boolean rasterize(Path path, Paint paint, int maxBytes) {
+        path.computeBounds(mComputeRect, true);
+        if (mComputeRect.isEmpty()) {
+            release();
+            return false;
+        }
+
+        mComputeRect.roundOut(mBounds);
+        //leave room for the anti-aliased edges
+        mBounds.set(mBounds.left - 1, mBounds.top - 1, mBounds.right + 1, mBounds.bottom + 1);
+
+        int width = mBounds.width();
+        int height = mBounds.height();
+        if (width <= 0 || height <= 0
+                || (long) width * height * BYTES_PER_PIXEL > maxBytes) {
+            release();
+            return false;
+        }
+
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            release();
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+        }
+
+        Canvas canvas = new Canvas(mBitmap);
+        canvas.translate(-mBounds.left, -mBounds.top);
+        canvas.drawPath(path, paint);
+        return true;
+    }
+
+    boolean isValid() {
+        return mBitmap != null;
+    }
+
+    /**
+     * Draw the sprite translated horizontally by the translation.
+     * */
+    void draw(Canvas canvas, float translationX, Paint bitmapPaint) {
+        canvas.drawBitmap(mBitmap, mBounds.left + translationX, mBounds.top, bitmapPaint);
+    }
+
+    int getByteCount() {
+        return mBitmap == null ? 0 : mBitmap.getHeight() * mBitmap.getWidth() * BYTES_PER_PIXEL;
+    }
+
+    void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package me.samlss.view;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+
+import static me.samlss.view.RainyView.FRAME_RATE_MODE_BALANCED;
+import static me.samlss.view.RainyView.FRAME_RATE_MODE_FULL;
+import static me.samlss.view.RainyView.FRAME_RATE_MODE_SAVER;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description Decides how often a rainy view renders.
+ *
+ * The effective mode is the requested mode, lowered further while the system is in power save mode
+ * or thermally throttled if following the system is enabled.
+ * Must be used on the main thread.
+ */
+final class FrameRateGovernor {
+    interface Listener {
+        void onEffectiveModeChanged();
+    }
+
+    private final static long BALANCED_FRAME_INTERVAL_NANOS = 1000000000L / 30;
+    private final static long SAVER_FRAME_INTERVAL_NANOS = 1000000000L / 15;
+
+    private final Context mContext;
+    private final Listener mListener;
+
+    private int mMode = FRAME_RATE_MODE_FULL;
+    private boolean mFollowSystem; //whether to follow the power save mode and the thermal status
+    private boolean mMonitoring; //whether the system is watched right now
+
+    private boolean mPowerSaveMode;
+    private int mThermalStatus; //PowerManager.THERMAL_STATUS_NONE
+    private int mEffectiveMode = FRAME_RATE_MODE_FULL;
+
+    private BroadcastReceiver mPowerSaveReceiver;
+    private Object mThermalStatusListener; //PowerManager.OnThermalStatusChangedListener since Q
+
+    FrameRateGovernor(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    void setMode(int mode) {
+        mMode = mode;
+        update();
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    int getEffectiveMode() {
+        return mEffectiveMode;
+    }
+
+    /**
+     * Set whether to lower the rate while the system saves power or is thermally throttled.
+     * */
+    void setFollowSystem(boolean followSystem, boolean attached) {
+        mFollowSystem = followSystem;
+        if (followSystem && attached) {
+            startMonitoring();
+        } else {
+            stopMonitoring();
+        }
+    }
+
+    boolean isFollowSystem() {
+        return mFollowSystem;
+    }
+
+    void onAttachedToWindow() {
+        if (mFollowSystem) {
+            startMonitoring();
+        }
+    }
+
+    void onDetachedFromWindow() {
+        stopMonitoring();
+    }
+
+    /**
+     * Get the min time between two rendered frames, 0 to render every vsync
+     * */
+    long getFrameIntervalNanos() {
+        switch (mEffectiveMode) {
+            case FRAME_RATE_MODE_SAVER:
+                return SAVER_FRAME_INTERVAL_NANOS;
+            case FRAME_RATE_MODE_BALANCED:
+                return BALANCED_FRAME_INTERVAL_NANOS;
+            default:
+                return 0;
+        }
+    }
+
+    private void startMonitoring() {
+        if (mMonitoring) {
+            return;
+        }
+
+        mMonitoring = true;
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mPowerSaveMode = powerManager.isPowerSaveMode();
+            mPowerSaveReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    PowerManager manager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                    mPowerSaveMode = manager != null && manager.isPowerSaveMode();
+                    update();
+                }
+            };
+            mContext.registerReceiver(mPowerSaveReceiver, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mThermalStatusListener = ThermalStatus.register(powerManager, this);
+        }
+        update();
+    }
+
+    private void stopMonitoring() {
+        if (!mMonitoring) {
+            return;
+        }
+
+        mMonitoring = false;
+        if (mPowerSaveReceiver != null) {
+            mContext.unregisterReceiver(mPowerSaveReceiver);
+            mPowerSaveReceiver = null;
+        }
+
+        if (mThermalStatusListener != null) {
+            PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            ThermalStatus.unregister(powerManager, mThermalStatusListener);
+            mThermalStatusListener = null;
+        }
+
+        mPowerSaveMode = false;
+        mThermalStatus = 0;
+        update();
+    }
+
+    private void update() {
+        int mode = mMode;
+        if (mPowerSaveMode || mThermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+            mode = Math.max(mode, FRAME_RATE_MODE_SAVER);
+        } else if (mThermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+            mode = Math.max(mode, FRAME_RATE_MODE_BALANCED);
+        }
+
+        if (mode != mEffectiveMode) {
+            mEffectiveMode = mode;
+            mListener.onEffectiveModeChanged();
+        }
+    }
+
+    /**
+     * Keeps the thermal API out of the governor, so it loads on every API level.
+     * */
+    @TargetApi(Build.VERSION_CODES.Q)
+    private static class ThermalStatus {
+        static Object register(PowerManager powerManager, final FrameRateGovernor governor) {
+            PowerManager.OnThermalStatusChangedListener listener = new PowerManager.OnThermalStatusChangedListener() {
+                @Override
+                public void onThermalStatusChanged(int status) {
+                    governor.mThermalStatus = status;
+                    governor.update();
+                }
+            };
+
+            governor.mThermalStatus = powerManager.getCurrentThermalStatus();
+            powerManager.addThermalStatusListener(listener);
+            return listener;
+        }
+
+        static void unregister(PowerManager powerManager, Object listener) {
+            powerManager.removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) listener);
+        }
+    }
+}
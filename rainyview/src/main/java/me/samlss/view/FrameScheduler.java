@@ -0,0 +1,124 @@
+package me.samlss.view;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description The only clock of a rainy view, calls back once per vsync.
+ *
+ * Uses {@link Choreographer} since {@link Build.VERSION_CODES#JELLY_BEAN}, before that
+ * falls back to a {@link Handler} posting at the display's nominal frame interval.
+ * Must be created and used on one looper thread, usually the main thread.
+ */
+final class FrameScheduler {
+    private final static long FALLBACK_FRAME_INTERVAL = 16; //the fallback frame interval in millis
+
+    //a frame this much early is still on time when rendering at a lower rate than the display's,
+    //so the vsync jitter does not skip one more vsync
+    final static long FRAME_INTERVAL_SLOP_NANOS = 4 * 1000000L;
+
+    interface Callback {
+        /**
+         * @param frameTimeNanos the frame time in {@link System#nanoTime()} time base
+         * */
+        void onFrame(long frameTimeNanos);
+    }
+
+    private final Callback mCallback;
+    private final Ticker mTicker;
+    private boolean mRunning;
+
+    FrameScheduler(Callback callback) {
+        mCallback = callback;
+        mTicker = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new ChoreographerTicker() : new HandlerTicker();
+    }
+
+    /**
+     * Start calling back every frame, does nothing if it is already running.
+     * */
+    void start() {
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        mTicker.post();
+    }
+
+    /**
+     * Stop calling back, a pending frame is dropped.
+     * */
+    void stop() {
+        if (!mRunning) {
+            return;
+        }
+
+        mRunning = false;
+        mTicker.cancel();
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    private void dispatchFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+
+        //post the next frame first, so the callback can stop the scheduler
+        mTicker.post();
+        mCallback.onFrame(frameTimeNanos);
+    }
+
+    private interface Ticker {
+        void post();
+        void cancel();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerTicker implements Ticker, Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        @Override
+        public void post() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void cancel() {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatchFrame(frameTimeNanos);
+        }
+    }
+
+    private class HandlerTicker implements Ticker, Runnable {
+        private final Handler mHandler = new Handler(Looper.myLooper());
+
+        @Override
+        public void post() {
+            mHandler.postDelayed(this, FALLBACK_FRAME_INTERVAL);
+        }
+
+        @Override
+        public void cancel() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            dispatchFrame(System.nanoTime());
+        }
+    }
+}
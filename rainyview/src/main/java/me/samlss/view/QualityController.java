@@ -0,0 +1,100 @@
+package me.samlss.view;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description Picks a quality level from the measured cost of the frames.
+ *
+ * The cost is smoothed, the level goes down after a short run of frames over the budget
+ * and only goes up again after a long run of frames well under it, so it does not oscillate
+ * around the budget.
+ */
+final class QualityController {
+    final static int MAX_LEVEL = 4; //the full quality, 0 is the lowest
+
+    private final static float SMOOTHING = 0.1f; //the weight of the latest frame in the average
+    private final static float UPGRADE_RATIO = 0.6f; //the ratio of the budget to stay under to go up
+    private final static int DOWNGRADE_FRAMES = 10; //the frames over the budget to go down
+    private final static int UPGRADE_FRAMES = 60; //the frames under the upgrade ratio to go up
+
+    private long mBudgetNanos;
+    private int mLevel = MAX_LEVEL;
+    private float mAverageNanos = -1; //negative until the first frame
+    private int mOverBudgetFrames;
+    private int mUnderBudgetFrames;
+
+    QualityController(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * Record the cost of a frame against the budget.
+     *
+     * @return true if the level changed
+     * */
+    boolean onFrame(long costNanos) {
+        return onFrame(costNanos, mBudgetNanos);
+    }
+
+    /**
+     * Record the cost of a frame against the given budget, for a cost that is not measured
+     * in the same time as the budget, e.g. the whole frame of the window.
+     *
+     * @return true if the level changed
+     * */
+    boolean onFrame(long costNanos, long budgetNanos) {
+        mAverageNanos = mAverageNanos < 0 ? costNanos
+                : mAverageNanos + (costNanos - mAverageNanos) * SMOOTHING;
+
+        if (mAverageNanos > budgetNanos) {
+            mUnderBudgetFrames = 0;
+            if (++mOverBudgetFrames >= DOWNGRADE_FRAMES && mLevel > 0) {
+                mOverBudgetFrames = 0;
+                mLevel--;
+                return true;
+            }
+        } else if (mAverageNanos < budgetNanos * UPGRADE_RATIO) {
+            mOverBudgetFrames = 0;
+            if (++mUnderBudgetFrames >= UPGRADE_FRAMES && mLevel < MAX_LEVEL) {
+                mUnderBudgetFrames = 0;
+                mLevel++;
+                return true;
+            }
+        } else {
+            mOverBudgetFrames = 0;
+            mUnderBudgetFrames = 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Start over at the full quality.
+     * */
+    void reset() {
+        mLevel = MAX_LEVEL;
+        mAverageNanos = -1;
+        mOverBudgetFrames = 0;
+        mUnderBudgetFrames = 0;
+    }
+
+    void setBudgetNanos(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+    }
+
+    long getBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Get the level as a fraction, 1 at the full quality
+     * */
+    float getFraction() {
+        return mLevel / (float) MAX_LEVEL;
+    }
+}
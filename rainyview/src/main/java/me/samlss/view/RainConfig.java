@@ -0,0 +1,267 @@
+package me.samlss.view;
+
+import android.content.res.TypedArray;
+
+import static me.samlss.view.RainyView.DEFAULT_DROP_CREATION_INTERVAL;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MAX_LENGTH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MAX_NUMBER;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MAX_SPEECH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MIN_LENGTH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MIN_SPEECH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_SIZE;
+import static me.samlss.view.RainyView.DEFAULT_DROP_SLOPE;
+import static me.samlss.view.RainyView.DEFAULT_LEFT_CLOUD_COLOR;
+import static me.samlss.view.RainyView.DEFAULT_RAIN_COLOR;
+import static me.samlss.view.RainyView.DEFAULT_RIGHT_CLOUD_COLOR;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description All the parameters of a rainy view at once, immutable.
+ *
+ * Apply it with {@link RainyView#applyConfig(RainConfig)} to change everything between two frames
+ * instead of one setter after another, it can be built and applied from any thread.
+ *
+ * <pre>
+ * rainyView.applyConfig(rainyView.getConfig().buildUpon()
+ *         .setRainDropMaxNumber(100)
+ *         .setRainDropCreationInterval(5)
+ *         .build());
+ * </pre>
+ */
+public final class RainConfig {
+    final int leftCloudColor;
+    final int rightCloudColor;
+    final int rainDropColor;
+    final int rainDropMaxNumber;
+    final int rainDropCreationInterval;
+    final int rainDropMinLength;
+    final int rainDropMaxLength;
+    final int rainDropSize;
+    final float rainDropMinSpeed;
+    final float rainDropMaxSpeed;
+    final float rainDropSlope;
+
+    private RainConfig(int leftCloudColor, int rightCloudColor, int rainDropColor,
+                       int rainDropMaxNumber, int rainDropCreationInterval,
+                       int rainDropMinLength, int rainDropMaxLength, int rainDropSize,
+                       float rainDropMinSpeed, float rainDropMaxSpeed, float rainDropSlope) {
+        this.leftCloudColor = leftCloudColor;
+        this.rightCloudColor = rightCloudColor;
+        this.rainDropColor = rainDropColor;
+        this.rainDropMaxNumber = rainDropMaxNumber;
+        this.rainDropCreationInterval = rainDropCreationInterval;
+        this.rainDropMinLength = rainDropMinLength;
+        this.rainDropMaxLength = rainDropMaxLength;
+        this.rainDropSize = rainDropSize;
+        this.rainDropMinSpeed = rainDropMinSpeed;
+        this.rainDropMaxSpeed = rainDropMaxSpeed;
+        this.rainDropSlope = rainDropSlope;
+    }
+
+    /**
+     * Check that no minimum is greater than its maximum, a config returned by {@link Builder#build()} passes.
+     *
+     * @throws IllegalArgumentException if a minimum is greater than its maximum
+     * */
+    void checkRanges() {
+        if (rainDropMinLength > rainDropMaxLength || rainDropMinSpeed > rainDropMaxSpeed) {
+            throw new IllegalArgumentException("The minimum value cannot be greater than the maximum value.");
+        }
+    }
+
+    /**
+     * Get a builder initialized with this config
+     * */
+    public Builder buildUpon() {
+        return new Builder()
+                .setLeftCloudColor(leftCloudColor)
+                .setRightCloudColor(rightCloudColor)
+                .setRainDropColor(rainDropColor)
+                .setRainDropMaxNumber(rainDropMaxNumber)
+                .setRainDropCreationInterval(rainDropCreationInterval)
+                .setRainDropLength(rainDropMinLength, rainDropMaxLength)
+                .setRainDropSize(rainDropSize)
+                .setRainDropSpeed(rainDropMinSpeed, rainDropMaxSpeed)
+                .setRainDropSlope(rainDropSlope);
+    }
+
+    public int getLeftCloudColor() {
+        return leftCloudColor;
+    }
+
+    public int getRightCloudColor() {
+        return rightCloudColor;
+    }
+
+    public int getRainDropColor() {
+        return rainDropColor;
+    }
+
+    public int getRainDropMaxNumber() {
+        return rainDropMaxNumber;
+    }
+
+    public int getRainDropCreationInterval() {
+        return rainDropCreationInterval;
+    }
+
+    public int getRainDropMinLength() {
+        return rainDropMinLength;
+    }
+
+    public int getRainDropMaxLength() {
+        return rainDropMaxLength;
+    }
+
+    public int getRainDropSize() {
+        return rainDropSize;
+    }
+
+    public float getRainDropMinSpeed() {
+        return rainDropMinSpeed;
+    }
+
+    public float getRainDropMaxSpeed() {
+        return rainDropMaxSpeed;
+    }
+
+    public float getRainDropSlope() {
+        return rainDropSlope;
+    }
+
+    /**
+     * Builds a {@link RainConfig}, starting with the default values of {@link RainyView}.
+     * */
+    public static final class Builder {
+        private int mLeftCloudColor = DEFAULT_LEFT_CLOUD_COLOR;
+        private int mRightCloudColor = DEFAULT_RIGHT_CLOUD_COLOR;
+        private int mRainDropColor = DEFAULT_RAIN_COLOR;
+        private int mRainDropMaxNumber = DEFAULT_DROP_MAX_NUMBER;
+        private int mRainDropCreationInterval = DEFAULT_DROP_CREATION_INTERVAL;
+        private int mRainDropMinLength = DEFAULT_DROP_MIN_LENGTH;
+        private int mRainDropMaxLength = DEFAULT_DROP_MAX_LENGTH;
+        private int mRainDropSize = DEFAULT_DROP_SIZE;
+        private float mRainDropMinSpeed = DEFAULT_DROP_MIN_SPEECH;
+        private float mRainDropMaxSpeed = DEFAULT_DROP_MAX_SPEECH;
+        private float mRainDropSlope = DEFAULT_DROP_SLOPE;
+
+        public Builder setLeftCloudColor(int leftCloudColor) {
+            this.mLeftCloudColor = leftCloudColor;
+            return this;
+        }
+
+        public Builder setRightCloudColor(int rightCloudColor) {
+            this.mRightCloudColor = rightCloudColor;
+            return this;
+        }
+
+        public Builder setRainDropColor(int rainDropColor) {
+            this.mRainDropColor = rainDropColor;
+            return this;
+        }
+
+        public Builder setRainDropMaxNumber(int rainDropMaxNumber) {
+            this.mRainDropMaxNumber = rainDropMaxNumber;
+            return this;
+        }
+
+        /**
+         * Set the creation interval of the raindrops in millis, 0 to create up to the max number at once
+         * */
+        public Builder setRainDropCreationInterval(int rainDropCreationInterval) {
+            this.mRainDropCreationInterval = rainDropCreationInterval;
+            return this;
+        }
+
+        public Builder setRainDropLength(int rainDropMinLength, int rainDropMaxLength) {
+            this.mRainDropMinLength = rainDropMinLength;
+            this.mRainDropMaxLength = rainDropMaxLength;
+            return this;
+        }
+
+        public Builder setRainDropSize(int rainDropSize) {
+            this.mRainDropSize = rainDropSize;
+            return this;
+        }
+
+        /**
+         * Set the min and max speed of the raindrops in pixels per 20 millis
+         * */
+        public Builder setRainDropSpeed(float rainDropMinSpeed, float rainDropMaxSpeed) {
+            this.mRainDropMinSpeed = rainDropMinSpeed;
+            this.mRainDropMaxSpeed = rainDropMaxSpeed;
+            return this;
+        }
+
+        public Builder setRainDropSlope(float rainDropSlope) {
+            this.mRainDropSlope = rainDropSlope;
+            return this;
+        }
+
+        /**
+         * Read the cloud and raindrop attributes of {@link R.styleable#RainyView}, the values set so far are the defaults.
+         * */
+        Builder setAttributes(TypedArray typedArray) {
+            mLeftCloudColor = typedArray.getColor(R.styleable.RainyView_left_cloud_color, mLeftCloudColor);
+            mRightCloudColor = typedArray.getColor(R.styleable.RainyView_right_cloud_color, mRightCloudColor);
+            mRainDropColor = typedArray.getColor(R.styleable.RainyView_raindrop_color, mRainDropColor);
+            mRainDropMaxNumber = typedArray.getInteger(R.styleable.RainyView_raindrop_max_number, mRainDropMaxNumber);
+            mRainDropMinLength = typedArray.getInteger(R.styleable.RainyView_raindrop_min_length, mRainDropMinLength);
+            mRainDropMaxLength = typedArray.getInteger(R.styleable.RainyView_raindrop_max_length, mRainDropMaxLength);
+            mRainDropMinSpeed = typedArray.getFloat(R.styleable.RainyView_raindrop_min_speed, mRainDropMinSpeed);
+            mRainDropMaxSpeed = typedArray.getFloat(R.styleable.RainyView_raindrop_max_speed, mRainDropMaxSpeed);
+            mRainDropCreationInterval = typedArray.getInteger(R.styleable.RainyView_raindrop_creation_interval, mRainDropCreationInterval);
+            mRainDropSize = typedArray.getInteger(R.styleable.RainyView_raindrop_size, mRainDropSize);
+            mRainDropSlope = typedArray.getFloat(R.styleable.RainyView_raindrop_slope, mRainDropSlope);
+            return this;
+        }
+
+        /**
+         * Build the config, the negative values are replaced with the defaults like the setters of {@link RainyView} do.
+         * The builder itself is not changed.
+         *
+         * @throws IllegalArgumentException if a minimum is greater than its maximum
+         * */
+        public RainConfig build() {
+            RainConfig config = sanitize();
+            config.checkRanges();
+            return config;
+        }
+
+        /**
+         * Build the config with the negative values replaced with the defaults, the only place these rules live.
+         * Unlike {@link #build()} a minimum may still be greater than its maximum, so the setters of the views
+         * can change one of them at a time. The builder itself is not changed.
+         * */
+        RainConfig sanitize() {
+            int rainDropMaxNumber = mRainDropMaxNumber < 0 ? DEFAULT_DROP_MAX_NUMBER : mRainDropMaxNumber;
+            int rainDropSize = mRainDropSize < 0 ? DEFAULT_DROP_SIZE : mRainDropSize;
+            int rainDropCreationInterval = mRainDropCreationInterval < 0 ? DEFAULT_DROP_CREATION_INTERVAL : mRainDropCreationInterval;
+
+            int rainDropMinLength = mRainDropMinLength;
+            int rainDropMaxLength = mRainDropMaxLength;
+            if (rainDropMinLength < 0
+                    || rainDropMaxLength < 0){
+                rainDropMinLength = DEFAULT_DROP_MIN_LENGTH;
+                rainDropMaxLength = DEFAULT_DROP_MAX_LENGTH;
+            }
+
+            float rainDropMinSpeed = mRainDropMinSpeed;
+            float rainDropMaxSpeed = mRainDropMaxSpeed;
+            if (rainDropMinSpeed < 0
+                    || rainDropMaxSpeed < 0){
+                rainDropMinSpeed = DEFAULT_DROP_MIN_SPEECH;
+                rainDropMaxSpeed = DEFAULT_DROP_MAX_SPEECH;
+            }
+
+            float rainDropSlope = mRainDropSlope < 0 ? DEFAULT_DROP_SLOPE : mRainDropSlope;
+
+            return new RainConfig(mLeftCloudColor, mRightCloudColor, mRainDropColor,
+                    rainDropMaxNumber, rainDropCreationInterval,
+                    rainDropMinLength, rainDropMaxLength, rainDropSize,
+                    rainDropMinSpeed, rainDropMaxSpeed, rainDropSlope);
+        }
+    }
+}
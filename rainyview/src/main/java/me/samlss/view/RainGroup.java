@@ -0,0 +1,112 @@
+package me.samlss.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description Drives a set of {@link RainyView}s from one frame clock.
+ *
+ * Every vsync all the animating views are advanced in one pass, each of them invalidates once,
+ * instead of every view running its own clock.
+ * A view only takes part while it is attached to a window, it leaves the group's pass
+ * when it is detached and rejoins when it is attached again.
+ * Must be used on the main thread.
+ *
+ * <pre>
+ * RainGroup group = new RainGroup();
+ * group.attach(rainyView1);
+ * group.attach(rainyView2);
+ * </pre>
+ */
+public class RainGroup {
+    private final List<RainyView> mViews = new ArrayList<>(); //the views attached to a window
+    private final FrameScheduler mFrameScheduler;
+    private long mLastFrameTimeNanos; //the last frame time, 0 means the next frame is the first one
+
+    public RainGroup() {
+        mFrameScheduler = new FrameScheduler(new FrameScheduler.Callback() {
+            @Override
+            public void onFrame(long frameTimeNanos) {
+                dispatchFrame(frameTimeNanos);
+            }
+        });
+    }
+
+    /**
+     * Let the group drive the view, same as {@link RainyView#setRainGroup(RainGroup)}.
+     * */
+    public void attach(RainyView view) {
+        view.setRainGroup(this);
+    }
+
+    /**
+     * Let the view run its own clock again, same as {@link RainyView#setRainGroup(RainGroup)} with null.
+     * */
+    public void detach(RainyView view) {
+        if (view.getRainGroup() == this) {
+            view.setRainGroup(null);
+        }
+    }
+
+    /**
+     * Get the number of views currently driven by this group
+     * */
+    public int getViewCount() {
+        return mViews.size();
+    }
+
+    void add(RainyView view) {
+        if (!mViews.contains(view)) {
+            mViews.add(view);
+        }
+        onViewStateChanged();
+    }
+
+    void remove(RainyView view) {
+        mViews.remove(view);
+        onViewStateChanged();
+    }
+
+    /**
+     * Run the clock while any view is animating.
+     * */
+    void onViewStateChanged() {
+        boolean running = false;
+        for (int i = 0, size = mViews.size(); i < size; i++) {
+            if (mViews.get(i).isAnimating()) {
+                running = true;
+                break;
+            }
+        }
+
+        if (running && !mFrameScheduler.isRunning()) {
+            mLastFrameTimeNanos = 0;
+            mFrameScheduler.start();
+        } else if (!running) {
+            mFrameScheduler.stop();
+        }
+    }
+
+    private void dispatchFrame(long frameTimeNanos) {
+        long elapsedNanos = 0;
+        if (mLastFrameTimeNanos != 0 && frameTimeNanos > mLastFrameTimeNanos) {
+            elapsedNanos = frameTimeNanos - mLastFrameTimeNanos;
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        //iterate backwards, a view may leave the group during its frame
+        for (int i = mViews.size() - 1; i >= 0; i--) {
+            if (i >= mViews.size()) {
+                continue;
+            }
+
+            RainyView view = mViews.get(i);
+            if (view.isAnimating()) {
+                view.doFrame(elapsedNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package me.samlss.view;
+
+import static me.samlss.view.RainyView.DEFAULT_DROP_CREATION_INTERVAL;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MAX_LENGTH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MAX_NUMBER;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MAX_SPEECH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MIN_LENGTH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_MIN_SPEECH;
+import static me.samlss.view.RainyView.DEFAULT_DROP_SIZE;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description An extra depth layer of raindrops, immutable.
+ *
+ * Every layer has its own raindrops with their own max number, speed, length, size and alpha,
+ * e.g. few slow, short, thin and faint drops far away behind the view's own raindrops.
+ * A layer is drawn with one paint in one call, see {@link RainyView#setRainLayers(RainLayer...)}.
+ *
+ * <pre>
+ * rainyView.setRainLayers(new RainLayer.Builder()
+ *         .setRainDropMaxNumber(30)
+ *         .setRainDropSpeed(1, 2)
+ *         .setRainDropLength(5, 15)
+ *         .setRainDropSize(2)
+ *         .setAlpha(0.4f)
+ *         .build());
+ * </pre>
+ */
+public final class RainLayer {
+    final int rainDropMaxNumber;
+    final int rainDropCreationInterval;
+    final int rainDropMinLength;
+    final int rainDropMaxLength;
+    final int rainDropSize;
+    final float rainDropMinSpeed;
+    final float rainDropMaxSpeed;
+    final float alpha;
+
+    private RainLayer(RainConfig config, float alpha) {
+        rainDropMaxNumber = config.rainDropMaxNumber;
+        rainDropCreationInterval = config.rainDropCreationInterval;
+        rainDropMinLength = config.rainDropMinLength;
+        rainDropMaxLength = config.rainDropMaxLength;
+        rainDropSize = config.rainDropSize;
+        rainDropMinSpeed = config.rainDropMinSpeed;
+        rainDropMaxSpeed = config.rainDropMaxSpeed;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Get a builder initialized with this layer
+     * */
+    public Builder buildUpon() {
+        return new Builder()
+                .setRainDropMaxNumber(rainDropMaxNumber)
+                .setRainDropCreationInterval(rainDropCreationInterval)
+                .setRainDropLength(rainDropMinLength, rainDropMaxLength)
+                .setRainDropSize(rainDropSize)
+                .setRainDropSpeed(rainDropMinSpeed, rainDropMaxSpeed)
+                .setAlpha(alpha);
+    }
+
+    public int getRainDropMaxNumber() {
+        return rainDropMaxNumber;
+    }
+
+    public int getRainDropCreationInterval() {
+        return rainDropCreationInterval;
+    }
+
+    public int getRainDropMinLength() {
+        return rainDropMinLength;
+    }
+
+    public int getRainDropMaxLength() {
+        return rainDropMaxLength;
+    }
+
+    public int getRainDropSize() {
+        return rainDropSize;
+    }
+
+    public float getRainDropMinSpeed() {
+        return rainDropMinSpeed;
+    }
+
+    public float getRainDropMaxSpeed() {
+        return rainDropMaxSpeed;
+    }
+
+    public float getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Builds a {@link RainLayer}, starting with the default values of {@link RainyView} and full alpha.
+     * */
+    public static final class Builder {
+        private int mRainDropMaxNumber = DEFAULT_DROP_MAX_NUMBER;
+        private int mRainDropCreationInterval = DEFAULT_DROP_CREATION_INTERVAL;
+        private int mRainDropMinLength = DEFAULT_DROP_MIN_LENGTH;
+        private int mRainDropMaxLength = DEFAULT_DROP_MAX_LENGTH;
+        private int mRainDropSize = DEFAULT_DROP_SIZE;
+        private float mRainDropMinSpeed = DEFAULT_DROP_MIN_SPEECH;
+        private float mRainDropMaxSpeed = DEFAULT_DROP_MAX_SPEECH;
+        private float mAlpha = 1;
+
+        /**
+         * Set the max number of raindrops of this layer, its budget
+         * */
+        public Builder setRainDropMaxNumber(int rainDropMaxNumber) {
+            this.mRainDropMaxNumber = rainDropMaxNumber;
+            return this;
+        }
+
+        /**
+         * Set the creation interval of the raindrops in millis, 0 to create up to the max number at once
+         * */
+        public Builder setRainDropCreationInterval(int rainDropCreationInterval) {
+            this.mRainDropCreationInterval = rainDropCreationInterval;
+            return this;
+        }
+
+        public Builder setRainDropLength(int rainDropMinLength, int rainDropMaxLength) {
+            this.mRainDropMinLength = rainDropMinLength;
+            this.mRainDropMaxLength = rainDropMaxLength;
+            return this;
+        }
+
+        public Builder setRainDropSize(int rainDropSize) {
+            this.mRainDropSize = rainDropSize;
+            return this;
+        }
+
+        /**
+         * Set the min and max speed of the raindrops in pixels per 20 millis
+         * */
+        public Builder setRainDropSpeed(float rainDropMinSpeed, float rainDropMaxSpeed) {
+            this.mRainDropMinSpeed = rainDropMinSpeed;
+            this.mRainDropMaxSpeed = rainDropMaxSpeed;
+            return this;
+        }
+
+        /**
+         * Set the alpha from 0 to 1 the rain color is faded with in this layer
+         * */
+        public Builder setAlpha(float alpha) {
+            this.mAlpha = alpha;
+            return this;
+        }
+
+        /**
+         * Build the layer, the raindrops' values are checked like {@link RainConfig.Builder#build()} does.
+         * The builder itself is not changed.
+         *
+         * @throws IllegalArgumentException if a minimum is greater than its maximum
+         * */
+        public RainLayer build() {
+            RainConfig config = new RainConfig.Builder()
+                    .setRainDropMaxNumber(mRainDropMaxNumber)
+                    .setRainDropCreationInterval(mRainDropCreationInterval)
+                    .setRainDropLength(mRainDropMinLength, mRainDropMaxLength)
+                    .setRainDropSize(mRainDropSize)
+                    .setRainDropSpeed(mRainDropMinSpeed, mRainDropMaxSpeed)
+                    .build();
+            return new RainLayer(config, Math.max(0, Math.min(1, mAlpha)));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package me.samlss.view;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import me.samlss.view.core.RainSimulation;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description Runs a {@link RainSimulation} on a dedicated thread, once per vsync of that thread.
+ *
+ * Every frame the drops' line segments are copied into a {@link Snapshot} and published,
+ * the renderer only reads the latest completed one through {@link #acquireLatestSnapshot()}.
+ * The snapshots are double buffered with one spare slot that is exchanged atomically,
+ * so neither side waits for a lock and a published snapshot is never written again
+ * while the renderer may hold it.
+ *
+ * The simulation must only be touched through {@link #post(Runnable)} once this is created.
+ */
+final class RainSimulationThread implements FrameScheduler.Callback {
+    /**
+     * The drops' line segments of one simulation frame, immutable once published.
+     * */
+    static final class Snapshot {
+        float[] lines = new float[0];
+        int lineCount; //the number of floats of lines in use
+        long sequence; //the publishing sequence, the larger the newer
+
+        //the simulation's statistics when published, the counters are cumulative
+        int dropCount;
+        long spawnCount;
+        long poolHitCount;
+        long poolMissCount;
+        long droppedStepCount;
+        long simulationTimeNanos;
+    }
+
+    private final RainSimulation mSimulation;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private final AtomicReference<Snapshot> mPending = new AtomicReference<>(new Snapshot()); //the exchanged slot
+    private Snapshot mBack = new Snapshot(); //written by the simulation thread only
+    private Snapshot mFront = new Snapshot(); //read by the renderer only
+    private long mSequence; //the simulation thread only
+
+    private FrameScheduler mFrameScheduler; //created and used on the simulation thread
+    private long mLastFrameTimeNanos; //the simulation thread only
+    private long mSimulationTimeNanos; //the simulation thread only, the total time spent stepping
+    private long mFrameIntervalNanos; //the simulation thread only, the min time between two steps
+    private long mPendingFrameNanos; //the simulation thread only, the time of the skipped vsyncs
+
+    RainSimulationThread(RainSimulation simulation) {
+        mSimulation = simulation;
+        mThread = new HandlerThread("RainyView-simulation", Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Run the action on the simulation thread, e.g. to change the simulation's parameters.
+     * */
+    void post(Runnable action) {
+        mHandler.post(action);
+    }
+
+    void start() {
+        mHandler.post(mStartTask);
+    }
+
+    /**
+     * Step at most once per frame interval instead of once per vsync, 0 for every vsync.
+     * */
+    void setFrameIntervalNanos(final long frameIntervalNanos) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFrameIntervalNanos = frameIntervalNanos;
+            }
+        });
+    }
+
+    void pause() {
+        mHandler.post(mPauseTask);
+    }
+
+    /**
+     * Stop the simulation and the thread, this can not be started again.
+     * */
+    void quit() {
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.post(mPauseTask);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mThread.quit();
+            }
+        });
+    }
+
+    /**
+     * Get the latest completed snapshot, only call this from the rendering thread.
+     * The returned snapshot stays valid until the next call.
+     * */
+    Snapshot acquireLatestSnapshot() {
+        if (mPending.get().sequence > mFront.sequence) {
+            mFront = mPending.getAndSet(mFront);
+        }
+
+        return mFront;
+    }
+
+    private final Runnable mStartTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mFrameScheduler == null) {
+                mFrameScheduler = new FrameScheduler(RainSimulationThread.this);
+            }
+
+            if (!mFrameScheduler.isRunning()) {
+                mLastFrameTimeNanos = 0;
+                mSimulation.resetClock();
+                mFrameScheduler.start();
+            }
+        }
+    };
+
+    private final Runnable mPauseTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mFrameScheduler != null) {
+                mFrameScheduler.stop();
+            }
+        }
+    };
+
+    @Override
+    public void onFrame(long frameTimeNanos) {
+        long elapsedNanos = 0;
+        if (mLastFrameTimeNanos != 0 && frameTimeNanos > mLastFrameTimeNanos) {
+            elapsedNanos = frameTimeNanos - mLastFrameTimeNanos;
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        mPendingFrameNanos += elapsedNanos;
+        if (mPendingFrameNanos < mFrameIntervalNanos - FrameScheduler.FRAME_INTERVAL_SLOP_NANOS) {
+            return; //skip this vsync
+        }
+        elapsedNanos = mPendingFrameNanos;
+        mPendingFrameNanos = 0;
+
+        long startNanos = System.nanoTime();
+        mSimulation.step(elapsedNanos);
+        mSimulationTimeNanos += System.nanoTime() - startNanos;
+        publish();
+    }
+
+    private void publish() {
+        Snapshot back = mBack;
+        if (back.lines.length < mSimulation.getLineCount()) {
+            back.lines = new float[mSimulation.getLines().length];
+        }
+
+        back.lineCount = mSimulation.emitLines(back.lines, 0);
+        back.dropCount = mSimulation.getDropCount();
+        back.spawnCount = mSimulation.getSpawnCount();
+        back.poolHitCount = mSimulation.getPoolHitCount();
+        back.poolMissCount = mSimulation.getPoolMissCount();
+        back.droppedStepCount = mSimulation.getDroppedStepCount();
+        back.simulationTimeNanos = mSimulationTimeNanos;
+        back.sequence = ++mSequence;
+
+        mBack = mPending.getAndSet(back);
+    }
+}
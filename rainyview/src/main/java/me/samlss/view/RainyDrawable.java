@@ -0,0 +1,271 @@
+package me.samlss.view;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+import me.samlss.view.core.RainSimulation;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description The rain effect of {@link RainyView} as an {@link Animatable} drawable,
+ * e.g. for backgrounds and placeholders that do not need a view of their own.
+ *
+ * The clouds and the rain follow the bounds, it ticks through its callback like {@link android.graphics.drawable.AnimationDrawable}
+ * and stops ticking while it is not visible. Must be used on the main thread.
+ *
+ * <pre>
+ * RainyDrawable drawable = new RainyDrawable(new RainConfig.Builder().setRainDropMaxNumber(30).build());
+ * imageView.setImageDrawable(drawable);
+ * drawable.start();
+ * </pre>
+ */
+public class RainyDrawable extends Drawable implements Animatable {
+    private final static long FRAME_DELAY = 16; //the millis between two ticks
+
+    private RainConfig mConfig;
+    private int mAlpha = 255;
+
+    private Paint mLeftCloudPaint;
+    private Paint mRightCloudPaint;
+    private Paint mRainPaint;
+
+    private CloudGeometry mCloudGeometry = CloudGeometry.obtain(0, 0);
+    private RainSimulation mSimulation;
+
+    private boolean mRunning; //whether it is started, it only ticks while visible as well
+    private long mPlayTimeNanos; //the played time of the clouds
+    private long mLastFrameTimeMillis; //the last tick's uptime, 0 means the next tick is the first one
+
+    public RainyDrawable() {
+        this(new RainConfig.Builder().build());
+    }
+
+    public RainyDrawable(RainConfig config) {
+        mLeftCloudPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLeftCloudPaint.setStyle(Paint.Style.FILL);
+
+        mRightCloudPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mRightCloudPaint.setStyle(Paint.Style.FILL);
+
+        mRainPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mRainPaint.setStrokeCap(Paint.Cap.ROUND);
+        mRainPaint.setStyle(Paint.Style.STROKE);
+
+        mSimulation = new RainSimulation(config.rainDropMaxNumber);
+        applyConfig(config);
+    }
+
+    /**
+     * Read the attributes of {@link RainyView} from a drawable xml.
+     * */
+    @Override
+    public void inflate(Resources r, XmlPullParser parser, AttributeSet attrs) throws XmlPullParserException, IOException {
+        super.inflate(r, parser, attrs);
+
+        TypedArray typedArray = r.obtainAttributes(attrs, R.styleable.RainyView);
+        RainConfig config = mConfig.buildUpon().setAttributes(typedArray).build();
+        typedArray.recycle();
+
+        applyConfig(config);
+    }
+
+    /**
+     * Get the current parameters
+     * */
+    public RainConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Replace all the parameters at once, they take effect from the next frame.
+     *
+     * @throws IllegalArgumentException if a minimum is greater than its maximum
+     * */
+    public void applyConfig(RainConfig config) {
+        config.checkRanges();
+        mConfig = config;
+        mRainPaint.setStrokeWidth(config.rainDropSize);
+        applyColors();
+
+        mSimulation.setRainDropMaxNumber(config.rainDropMaxNumber);
+        mSimulation.setRainDropCreationInterval(config.rainDropCreationInterval);
+        mSimulation.setRainDropLength(config.rainDropMinLength, config.rainDropMaxLength);
+        mSimulation.setRainDropSpeed(config.rainDropMinSpeed, config.rainDropMaxSpeed);
+        mSimulation.setRainDropSlope(config.rainDropSlope);
+        invalidateSelf();
+    }
+
+    /**
+     * Set the seed of the raindrops' random positions, lengths and speeds,
+     * see {@link RainyView#setRandomSeed(long)}.
+     * */
+    public void setRandomSeed(long randomSeed) {
+        mSimulation.setRandomSeed(randomSeed);
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        mCloudGeometry = CloudGeometry.obtain(bounds.width(), bounds.height());
+
+        RectF rainRect = mCloudGeometry.rainRect;
+        mSimulation.setBounds(rainRect.left, rainRect.top, rainRect.right, rainRect.bottom);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        CloudGeometry geometry = mCloudGeometry;
+        Rect bounds = getBounds();
+        long playTime = mPlayTimeNanos / 1000000L;
+
+        canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+
+        int lineCount = mSimulation.getLineCount();
+        if (lineCount > 0){
+            canvas.save();
+            canvas.clipRect(geometry.rainClipRect);
+            canvas.drawLines(mSimulation.getLines(), 0, lineCount, mRainPaint);
+            canvas.restore();
+        }
+
+        drawCloud(canvas, geometry, true, geometry.getRightCloudTranslationX(CloudGeometry.getRightCloudAnimatorValue(playTime)));
+        drawCloud(canvas, geometry, false, geometry.getLeftCloudTranslationX(CloudGeometry.getLeftCloudAnimatorValue(playTime)));
+        canvas.restore();
+    }
+
+    private void drawCloud(Canvas canvas, CloudGeometry geometry, boolean right, float translationX){
+        canvas.save();
+        canvas.translate(translationX, 0);
+        canvas.drawPath(right ? geometry.rightCloudPath : geometry.leftCloudPath,
+                right ? mRightCloudPaint : mLeftCloudPaint);
+        canvas.restore();
+    }
+
+    /**
+     * Start ticking, once it is visible if it is not.
+     * */
+    @Override
+    public void start() {
+        if (mRunning){
+            return;
+        }
+
+        mRunning = true;
+        if (isVisible()){
+            scheduleTick();
+        }
+    }
+
+    @Override
+    public void stop() {
+        mRunning = false;
+        unscheduleSelf(mTick);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Pause ticking while invisible and resume once visible again if it is running.
+     * The played time and the raindrops are kept unless restart is true.
+     * */
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean changed = super.setVisible(visible, restart);
+        if (visible){
+            if (restart){
+                mPlayTimeNanos = 0;
+                mSimulation.clear();
+            }
+
+            if (mRunning && (changed || restart)){
+                scheduleTick();
+            }
+        }else{
+            unscheduleSelf(mTick);
+        }
+        return changed;
+    }
+
+    private void scheduleTick(){
+        unscheduleSelf(mTick);
+        mLastFrameTimeMillis = 0;
+        scheduleSelf(mTick, SystemClock.uptimeMillis());
+    }
+
+    private Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            long elapsedNanos = mLastFrameTimeMillis == 0 ? 0 : (now - mLastFrameTimeMillis) * 1000000L;
+            mLastFrameTimeMillis = now;
+
+            mPlayTimeNanos += elapsedNanos;
+            mSimulation.step(elapsedNanos);
+            invalidateSelf();
+
+            if (mRunning && isVisible()){
+                scheduleSelf(this, now + FRAME_DELAY);
+            }
+        }
+    };
+
+    @Override
+    public void setAlpha(int alpha) {
+        mAlpha = alpha;
+        applyColors();
+        invalidateSelf();
+    }
+
+    @Override
+    public int getAlpha() {
+        return mAlpha;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mLeftCloudPaint.setColorFilter(colorFilter);
+        mRightCloudPaint.setColorFilter(colorFilter);
+        mRainPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    /**
+     * The colors of the config, faded by the drawable's alpha.
+     * */
+    private void applyColors(){
+        mLeftCloudPaint.setColor(fade(mConfig.leftCloudColor));
+        mRightCloudPaint.setColor(fade(mConfig.rightCloudColor));
+        mRainPaint.setColor(fade(mConfig.rainDropColor));
+    }
+
+    private int fade(int color){
+        return (color & 0x00FFFFFF) | ((Color.alpha(color) * mAlpha / 255) << 24);
+    }
+}
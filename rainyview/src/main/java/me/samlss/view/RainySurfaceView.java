@@ -0,0 +1,561 @@
+package me.samlss.view;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.util.concurrent.CountDownLatch;
+
+import me.samlss.view.core.RainSimulation;
+
+/**
+ * @author SamLeung
+ * @e-mail samlssplus@gmail.com
+ * @github https://github.com/samlss
+ * @description A {@link RainyView} that renders into its own surface on a dedicated thread.
+ *
+ * The same clouds and the same raindrops as {@link RainyView}, with the same attributes,
+ * but the UI thread never steps nor draws them, so a busy UI thread does not stall the rain.
+ * The rendering thread runs while the surface exists, the animation starts once the surface is sized.
+ * The surface is translucent and drawn below the window by default.
+ */
+public class RainySurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+    //all the parameters, sanitized by RainConfig.Builder#sanitize(), a minimum may exceed its maximum in between two setters
+    private RainConfig mConfig = new RainConfig.Builder().build();
+
+    private int mPrewarmDuration; //the millis the rain is fast-forwarded whenever the surface is sized
+
+    //whether the animation is requested to run, only start() and stop() change it, the UI thread only.
+    //it starts running once the surface is sized unless stop() was called
+    private boolean mRunning = true;
+    private RenderThread mRenderThread; //exists while the surface exists
+
+    //Owned by the rendering thread while it exists, by the UI thread otherwise
+    private final RainSimulation mSimulation;
+    private final Paint mLeftCloudPaint;
+    private final Paint mRightCloudPaint;
+    private final Paint mRainPaint;
+
+    public RainySurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public RainySurfaceView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public RainySurfaceView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        parseAttrs(attrs);
+
+        mLeftCloudPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLeftCloudPaint.setStyle(Paint.Style.FILL);
+
+        mRightCloudPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mRightCloudPaint.setStyle(Paint.Style.FILL);
+
+        mRainPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mRainPaint.setStrokeCap(Paint.Cap.ROUND);
+        mRainPaint.setStyle(Paint.Style.STROKE);
+
+        mSimulation = new RainSimulation(mConfig.rainDropMaxNumber);
+        applyParams();
+
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        getHolder().addCallback(this);
+    }
+
+    private void parseAttrs(AttributeSet attrs){
+        if (attrs == null){
+            return;
+        }
+
+        TypedArray typedArray = getContext().obtainStyledAttributes(attrs, R.styleable.RainyView);
+        mConfig = mConfig.buildUpon().setAttributes(typedArray).sanitize();
+        mPrewarmDuration = Math.max(0, typedArray.getInteger(R.styleable.RainyView_prewarm, 0));
+
+        typedArray.recycle();
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mRenderThread = new RenderThread(holder);
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        //the geometry is immutable, so it is handed over as it is
+        final CloudGeometry geometry = CloudGeometry.obtain(width, height);
+        final RenderThread renderThread = mRenderThread;
+        final long prewarmNanos = mPrewarmDuration * 1000000L;
+        applyParams();
+        renderThread.post(new Runnable() {
+            @Override
+            public void run() {
+                renderThread.setGeometry(geometry);
+                if (prewarmNanos > 0) {
+                    mSimulation.prewarm(prewarmNanos);
+                }
+            }
+        });
+
+        if (mRunning){
+            mRenderThread.start();
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        //the surface must not be drawn once this returns
+        mRenderThread.quitSync();
+        mRenderThread = null;
+    }
+
+    /**
+     * Start the animation.
+     * */
+    public void start(){
+        mRunning = true;
+        if (mRenderThread != null){
+            mRenderThread.start();
+        }
+    }
+
+    /**
+     * Stop the animation
+     * */
+    public void stop(){
+        mRunning = false;
+        if (mRenderThread != null){
+            mRenderThread.pause();
+        }
+    }
+
+    /**
+     * Whether the animation is started, it only runs while the surface exists
+     * */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Hand the current parameters to the simulation and the paints, on the rendering thread if it exists.
+     * */
+    private void applyParams(){
+        final RainConfig config = mConfig; //immutable, so it is handed over as it is
+
+        Runnable apply = new Runnable() {
+            @Override
+            public void run() {
+                mLeftCloudPaint.setColor(config.leftCloudColor);
+                mRightCloudPaint.setColor(config.rightCloudColor);
+                mRainPaint.setColor(config.rainDropColor);
+                mRainPaint.setStrokeWidth(config.rainDropSize);
+
+                mSimulation.setRainDropMaxNumber(config.rainDropMaxNumber);
+                mSimulation.setRainDropCreationInterval(config.rainDropCreationInterval);
+                mSimulation.setRainDropLength(config.rainDropMinLength, config.rainDropMaxLength);
+                mSimulation.setRainDropSpeed(config.rainDropMinSpeed, config.rainDropMaxSpeed);
+                mSimulation.setRainDropSlope(config.rainDropSlope);
+            }
+        };
+
+        if (mRenderThread != null){
+            mRenderThread.post(apply);
+        }else{
+            apply.run();
+        }
+    }
+
+    /**
+     * Steps the simulation and draws the frames into the surface, once per vsync of its own thread.
+     * Everything but {@link #post(Runnable)}, {@link #start()}, {@link #pause()} and {@link #quitSync()}
+     * runs on that thread.
+     * */
+    private final class RenderThread implements FrameScheduler.Callback {
+        private final SurfaceHolder mSurfaceHolder;
+        private final HandlerThread mThread;
+        private final Handler mHandler;
+
+        private FrameScheduler mFrameScheduler;
+        private CloudGeometry mGeometry; //null until the surface is sized
+        private long mPlayTimeNanos; //the clouds' played time in nanos
+        private long mLastFrameTimeNanos; //the last frame time, 0 means the next frame is the first one
+
+        RenderThread(SurfaceHolder surfaceHolder) {
+            mSurfaceHolder = surfaceHolder;
+            mThread = new HandlerThread("RainySurfaceView-render", Process.THREAD_PRIORITY_DISPLAY);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+
+        void post(Runnable action) {
+            mHandler.post(action);
+        }
+
+        void start() {
+            mHandler.post(mStartTask);
+        }
+
+        void pause() {
+            mHandler.post(mPauseTask);
+        }
+
+        /**
+         * Stop rendering and wait for it, then quit the thread.
+         * */
+        void quitSync() {
+            final CountDownLatch latch = new CountDownLatch(1);
+            mHandler.removeCallbacks(mStartTask);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mPauseTask.run();
+                    mThread.quit();
+                    latch.countDown();
+                }
+            });
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void setGeometry(CloudGeometry geometry) {
+            mGeometry = geometry;
+            mSimulation.setBounds(geometry.rainRect.left, geometry.rainRect.top,
+                    geometry.rainRect.right, geometry.rainRect.bottom);
+        }
+
+        private final Runnable mStartTask = new Runnable() {
+            @Override
+            public void run() {
+                if (mFrameScheduler == null) {
+                    mFrameScheduler = new FrameScheduler(RenderThread.this);
+                }
+
+                if (!mFrameScheduler.isRunning()) {
+                    mLastFrameTimeNanos = 0;
+                    mSimulation.resetClock();
+                    mFrameScheduler.start();
+                }
+            }
+        };
+
+        private final Runnable mPauseTask = new Runnable() {
+            @Override
+            public void run() {
+                if (mFrameScheduler != null) {
+                    mFrameScheduler.stop();
+                }
+            }
+        };
+
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            long elapsedNanos = 0;
+            if (mLastFrameTimeNanos != 0 && frameTimeNanos > mLastFrameTimeNanos) {
+                elapsedNanos = frameTimeNanos - mLastFrameTimeNanos;
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+
+            if (mGeometry == null) {
+                return;
+            }
+
+            mPlayTimeNanos += elapsedNanos;
+            mSimulation.step(elapsedNanos);
+            drawFrame();
+        }
+
+        private void drawFrame() {
+            Canvas canvas = lockCanvas();
+            if (canvas == null) {
+                return; //the surface is not ready
+            }
+
+            try {
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+
+                CloudGeometry geometry = mGeometry;
+                canvas.save();
+                canvas.clipRect(geometry.rainClipRect);
+                int lineCount = mSimulation.getLineCount();
+                if (lineCount > 0) {
+                    canvas.drawLines(mSimulation.getLines(), 0, lineCount, mRainPaint);
+                }
+                canvas.restore();
+
+                long playTime = mPlayTimeNanos / 1000000L;
+                drawCloud(canvas, geometry.rightCloudPath, mRightCloudPaint,
+                        geometry.getRightCloudTranslationX(CloudGeometry.getRightCloudAnimatorValue(playTime)));
+                drawCloud(canvas, geometry.leftCloudPath, mLeftCloudPaint,
+                        geometry.getLeftCloudTranslationX(CloudGeometry.getLeftCloudAnimatorValue(playTime)));
+            } finally {
+                mSurfaceHolder.unlockCanvasAndPost(canvas);
+            }
+        }
+
+        private void drawCloud(Canvas canvas, Path path, Paint paint, float translationX) {
+            canvas.save();
+            canvas.translate(translationX, 0);
+            canvas.drawPath(path, paint);
+            canvas.restore();
+        }
+
+        /**
+         * Lock a GPU backed canvas where it is available, i.e. since {@link Build.VERSION_CODES#O}.
+         * */
+        @TargetApi(Build.VERSION_CODES.O)
+        private Canvas lockCanvas() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                return mSurfaceHolder.lockHardwareCanvas();
+            }
+
+            return mSurfaceHolder.lockCanvas();
+        }
+    }
+
+    /**
+     * Set the millis to fast-forward the rain for whenever the surface is sized, 0 to start empty.
+     * Default is 0.
+     * */
+    public void setPrewarmDuration(int prewarmDuration) {
+        this.mPrewarmDuration = Math.max(0, prewarmDuration);
+    }
+
+    /**
+     * Get the millis the rain is fast-forwarded for whenever the surface is sized
+     * */
+    public int getPrewarmDuration() {
+        return mPrewarmDuration;
+    }
+
+    /**
+     * Get all the current parameters at once, a minimum may be greater than its maximum
+     * while only one of them is set yet.
+     * */
+    public RainConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Replace all the parameters at once, they take effect together from the next frame.
+     * Can be called from any thread, it is applied on the UI thread.
+     *
+     * @throws IllegalArgumentException if a minimum is greater than its maximum
+     * */
+    public void applyConfig(final RainConfig config) {
+        config.checkRanges();
+        if (Looper.myLooper() != Looper.getMainLooper()){
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    applyConfig(config);
+                }
+            });
+            return;
+        }
+
+        mConfig = config;
+        applyParams();
+    }
+
+    /**
+     * Change one parameter, the builder is sanitized like the setters of {@link RainyView} are.
+     * */
+    private void updateConfig(RainConfig.Builder builder){
+        mConfig = builder.sanitize();
+        applyParams();
+    }
+
+    /**
+     * Set the seed of the raindrops' random positions, lengths and speeds, so the same seed
+     * and the same parameters always spawn the same raindrops, e.g. for screenshot tests.
+     * */
+    public void setRandomSeed(final long randomSeed) {
+        Runnable apply = new Runnable() {
+            @Override
+            public void run() {
+                mSimulation.setRandomSeed(randomSeed);
+            }
+        };
+
+        if (mRenderThread != null){
+            mRenderThread.post(apply);
+        }else{
+            apply.run();
+        }
+    }
+
+    /**
+     * Set the color of the left cloud
+     * */
+    public void setLeftCloudColor(int leftCloudColor) {
+        updateConfig(mConfig.buildUpon().setLeftCloudColor(leftCloudColor));
+    }
+
+    /**
+     * Get the color of the left cloud
+     * */
+    public int getLeftCloudColor() {
+        return mConfig.leftCloudColor;
+    }
+
+    /**
+     * Set the color of the right cloud
+     * */
+    public void setRightCloudColor(int rightCloudColor) {
+        updateConfig(mConfig.buildUpon().setRightCloudColor(rightCloudColor));
+    }
+
+    /**
+     * Get the color of the right cloud
+     * */
+    public int getRightCloudColor() {
+        return mConfig.rightCloudColor;
+    }
+
+    /**
+     * Set the color of all the raindrops
+     * */
+    public void setRainDropColor(int rainDropColor) {
+        updateConfig(mConfig.buildUpon().setRainDropColor(rainDropColor));
+    }
+
+    /**
+     * Get the color of all the raindrops
+     * */
+    public int getRainDropColor() {
+        return mConfig.rainDropColor;
+    }
+
+    /**
+     * Set the max number of the raindrop
+     * */
+    public void setRainDropMaxNumber(int rainDropMaxNumber) {
+        updateConfig(mConfig.buildUpon().setRainDropMaxNumber(rainDropMaxNumber));
+    }
+
+    /**
+     * Get the max number of the raindrop
+     * */
+    public int getRainDropMaxNumber() {
+        return mConfig.rainDropMaxNumber;
+    }
+
+    /**
+     * Set the creation interval of the raindrop
+     * */
+    public void setRainDropCreationInterval(int rainDropCreationInterval) {
+        updateConfig(mConfig.buildUpon().setRainDropCreationInterval(rainDropCreationInterval));
+    }
+
+    /**
+     * Get the creation interval of the raindrop
+     * */
+    public int getRainDropCreationInterval() {
+        return mConfig.rainDropCreationInterval;
+    }
+
+    /**
+     * Set the min length of the raindrop
+     * */
+    public void setRainDropMinLength(int rainDropMinLength) {
+        updateConfig(mConfig.buildUpon().setRainDropLength(rainDropMinLength, mConfig.rainDropMaxLength));
+    }
+
+    /**
+     * Get the min length of the raindrop
+     * */
+    public int getRainDropMinLength() {
+        return mConfig.rainDropMinLength;
+    }
+
+    /**
+     * Set the max length of the raindrop
+     * */
+    public void setRainDropMaxLength(int rainDropMaxLength) {
+        updateConfig(mConfig.buildUpon().setRainDropLength(mConfig.rainDropMinLength, rainDropMaxLength));
+    }
+
+    /**
+     * Get the max length of the raindrop
+     * */
+    public int getRainDropMaxLength() {
+        return mConfig.rainDropMaxLength;
+    }
+
+    /**
+     * Set the size of the raindrop
+     * */
+    public void setRainDropSize(int rainDropSize) {
+        updateConfig(mConfig.buildUpon().setRainDropSize(rainDropSize));
+    }
+
+    /**
+     * Get the size of the raindrop
+     * */
+    public int getRainDropSize() {
+        return mConfig.rainDropSize;
+    }
+
+    /**
+     * Set the max speed of the raindrop
+     * */
+    public void setRainDropMaxSpeed(float rainDropMaxSpeed) {
+        updateConfig(mConfig.buildUpon().setRainDropSpeed(mConfig.rainDropMinSpeed, rainDropMaxSpeed));
+    }
+
+    /**
+     * Get the max speed of the raindrop
+     * */
+    public float getRainDropMaxSpeed() {
+        return mConfig.rainDropMaxSpeed;
+    }
+
+    /**
+     * Set the minimum speed of the raindrop
+     * */
+    public void setRainDropMinSpeed(float rainDropMinSpeed) {
+        updateConfig(mConfig.buildUpon().setRainDropSpeed(rainDropMinSpeed, mConfig.rainDropMaxSpeed));
+    }
+
+    /**
+     * Get the minimum speed of the raindrop
+     * */
+    public float getRainDropMinSpeed() {
+        return mConfig.rainDropMinSpeed;
+    }
+
+    /**
+     * Set the slope of the raindrop
+     * */
+    public void setRainDropSlope(float rainDropSlope) {
+        updateConfig(mConfig.buildUpon().setRainDropSlope(rainDropSlope));
+    }
+
+    /**
+     * Get the slope of the raindrop
+     * */
+    public float getRainDropSlope() {
+        return mConfig.rainDropSlope;
+    }
+}
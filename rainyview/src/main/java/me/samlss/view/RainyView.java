@@ -1,26 +1,29 @@
 package me.samlss.view;
 
-import android.animation.ValueAnimator;
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.content.Context;
+import android.content.ContextWrapper;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Build;
-import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.FrameMetrics;
 import android.view.View;
-import android.view.animation.LinearInterpolator;
+import android.view.ViewTreeObserver;
+import android.view.Window;
+import android.view.WindowManager;
+
+import me.samlss.view.core.RainSimulation;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import java.util.Stack;
 
 /**
  * @author SamLeung
@@ -31,19 +34,79 @@ import java.util.Stack;
 public class RainyView extends View {
     private final static int DEFAULT_SIZE = 300; //the default size if set "wrap_content"
 
-    private final static int DEFAULT_DROP_MAX_NUMBER = 30; //Number of raindrops that can coexist at the same time
-    private final static int DEFAULT_DROP_CREATION_INTERVAL = 50; //the default drop creation interval in millis
-    private final static int DEFAULT_DROP_MAX_LENGTH = 50; //the default max length of drop
-    private final static int DEFAULT_DROP_MIN_LENGTH = 10; //the default max length of drop
-    private final static int DEFAULT_DROP_SIZE = 15; //the default drop size of drop
-    private final static float DEFAULT_DROP_MAX_SPEECH = 5f; //the default max speech value
-    private final static float DEFAULT_DROP_MIN_SPEECH = 1f; //the default max speech value
-    private final static float DEFAULT_DROP_SLOPE = -3f; // the default drop slope
+    final static int DEFAULT_DROP_MAX_NUMBER = 30; //Number of raindrops that can coexist at the same time
+    final static int DEFAULT_DROP_CREATION_INTERVAL = 50; //the default drop creation interval in millis
+    final static int DEFAULT_DROP_MAX_LENGTH = 50; //the default max length of drop
+    final static int DEFAULT_DROP_MIN_LENGTH = 10; //the default max length of drop
+    final static int DEFAULT_DROP_SIZE = 15; //the default drop size of drop
+    final static float DEFAULT_DROP_MAX_SPEECH = 5f; //the default max speech value
+    final static float DEFAULT_DROP_MIN_SPEECH = 1f; //the default max speech value
+    final static float DEFAULT_DROP_SLOPE = -3f; // the default drop slope
+
+    final static int DEFAULT_LEFT_CLOUD_COLOR = Color.parseColor("#B0B0B0");
+    final static int DEFAULT_RIGHT_CLOUD_COLOR = Color.parseColor("#DFDFDF");
+    final static int DEFAULT_RAIN_COLOR = Color.parseColor("#80B9C5");
+    private final static int DEFAULT_CLOUD_CACHE_MAX_BYTES = 4 * 1024 * 1024; //the default memory cap of the cloud sprites
+
+    /**
+     * Spawn, move and draw the raindrops on the UI thread.
+     * */
+    public final static int ENGINE_MODE_UI_THREAD = 0;
+
+    /**
+     * Spawn and move the raindrops on a dedicated simulation thread, the UI thread only draws
+     * the latest completed snapshot of the drops. The thread is quit when this view is detached
+     * and started again once it animates, the drops start over then.
+     * */
+    public final static int ENGINE_MODE_WORKER_THREAD = 1;
+
+    /**
+     * Compute the raindrops on the UI thread as a closed-form function of the time instead of stepping them,
+     * so any time can be shown directly with {@link #setTime(long)}. The rain is full from the start,
+     * and the same random seed shows the same raindrops at the same time.
+     * */
+    public final static int ENGINE_MODE_ANALYTIC = 2;
+
+    /**
+     * Render one seamless loop of the raindrops into frames on a background thread and play them back,
+     * a frame then only draws one bitmap. Meant for small, decorative views. The frames are shared by
+     * the views of the same size and parameters, within {@link #setBakedCacheMaxBytes(int)}.
+     * Until they are ready, or if they do not fit, the raindrops are drawn like in {@link #ENGINE_MODE_ANALYTIC}.
+     * */
+    public final static int ENGINE_MODE_BAKED = 3;
+
+    /**
+     * Always rasterize this view on the CPU into a software layer.
+     * */
+    public final static int RENDER_BACKEND_SOFTWARE = 0;
+
+    /**
+     * Draw this view with the hardware pipeline when the window is hardware accelerated.
+     * */
+    public final static int RENDER_BACKEND_HARDWARE = 1;
+
+    /**
+     * Use {@link #RENDER_BACKEND_HARDWARE} where the hardware pipeline supports everything this view draws,
+     * i.e. since {@link Build.VERSION_CODES#JELLY_BEAN_MR2} which renders the round caps of the raindrops' lines,
+     * otherwise {@link #RENDER_BACKEND_SOFTWARE}.
+     * */
+    public final static int RENDER_BACKEND_AUTO = 2;
+
+    /**
+     * Render every vsync.
+     * */
+    public final static int FRAME_RATE_MODE_FULL = 0;
+
+    /**
+     * Render at most 30 frames per second.
+     * */
+    public final static int FRAME_RATE_MODE_BALANCED = 1;
 
-    private final static int DEFAULT_LEFT_CLOUD_COLOR = Color.parseColor("#B0B0B0");
-    private final static int DEFAULT_RIGHT_CLOUD_COLOR = Color.parseColor("#DFDFDF");
-    private final static int DEFAULT_RAIN_COLOR = Color.parseColor("#80B9C5");
-    private final static float CLOUD_SCALE_RATIO = 0.85f;
+    /**
+     * Render at most 15 frames per second with the clouds holding still,
+     * and stop rendering at all while there are no raindrops and none can be created.
+     * */
+    public final static int FRAME_RATE_MODE_SAVER = 2;
 
     private Paint mLeftCloudPaint;
     private Paint mRightCloudPaint;
@@ -53,32 +116,83 @@ public class RainyView extends View {
     private int mRightCloudColor = DEFAULT_RIGHT_CLOUD_COLOR;
     private int mRainColor = DEFAULT_RAIN_COLOR;
 
-    //There are two clouds in this view, includes the left cloud & right cloud
-    private Path mLeftCloudPath; //the left cloud's path
-    private Path mRightCloudPath; //the right cloud's path
-
-    private RectF mRainRect; //the rain rect
-    private RectF mRainClipRect; //the rain clip rect
+    private CloudGeometry mCloudGeometry; //the clouds and the rain rect of the current size
+
+    //The clouds rasterized into bitmaps, drawn instead of the paths while valid
+    private CloudSprite mLeftCloudSprite = new CloudSprite();
+    private CloudSprite mRightCloudSprite = new CloudSprite();
+    private Paint mCloudSpritePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private int mCloudCacheMaxBytes = DEFAULT_CLOUD_CACHE_MAX_BYTES;
+    private boolean mCloudSpritesDirty; //the sprites need to be rasterized again before drawing
+
+    //Only the region that changed between two frames is invalidated
+    private RectF mFrameBounds = new RectF(); //the bounds of everything drawn in the current frame
+    private RectF mLastFrameBounds = new RectF(); //the bounds of everything drawn in the last frame
+    private RectF mDirtyBounds = new RectF(); //the union of the last and current frame bounds
+    private float mDirtyAreaRatio; //the ratio of the last invalidated area to the view's area
+    private float[] mComputeBounds = new float[4]; //the bounds for computing
+
+    //The frame statistics and the trace sections, both cost nothing but a check while disabled
+    private FrameStatsListener mFrameStatsListener;
+    private int mFrameStatsWindow = 1; //the number of frames aggregated per report
+    private FrameStats mFrameStats = new FrameStats();
+    private long mSimulationTimeNanos; //the total time spent stepping on the UI thread
+    private long mFrameStepNanos; //the time spent stepping on the UI thread for the current frame
+
+    //The adaptive quality scales the drops down between the bounds to keep the frames within the budget
+    private final static float DEFAULT_FRAME_BUDGET_MILLIS = 6; //about a third of a frame at 60 fps
+    private final static float DEFAULT_REFRESH_RATE = 60; //if the display does not tell
+    private boolean mAdaptiveQualityEnabled;
+    private QualityController mQualityController = new QualityController((long) (DEFAULT_FRAME_BUDGET_MILLIS * 1000000L));
+    private int mAdaptiveMinRainDropNumber; //the lower bound of the effective max number
+    private long mVsyncIntervalNanos = (long) (1000000000L / DEFAULT_REFRESH_RATE); //the display's, read once attached
+    private Window mFrameMetricsWindow; //the window whose frames are measured while drawn by the hardware, since N
+    private Object mFrameMetricsListener; //Window.OnFrameMetricsAvailableListener since N
+
+    private int mPrewarmDuration; //the millis the rain is fast-forwarded whenever it is sized, 0 to start empty
+    private RainSimulationThread.Snapshot mDrawnSnapshot; //the snapshot drawn in the last frame
+    private long mLastSpawnCount; //the cumulative counters at the last recorded frame
+    private long mLastPoolHitCount;
+    private long mLastPoolMissCount;
+    private long mLastDroppedStepCount;
+    private long mLastSimulationTimeNanos;
+    private boolean mFrameStatsBaselinePending; //the published counters are not known yet, see resetFrameStats()
+    private boolean mTraceEnabled;
+
+    private FrameScheduler mFrameScheduler; //the only clock, drives the drops and the clouds once per vsync
+    private RainGroup mRainGroup; //drives this view instead of mFrameScheduler if set
+    private boolean mRunning = true; //whether the animation is started, only start() and stop() change it, it runs once laid out
+    private boolean mAnimating; //whether the frame clock runs, i.e. started, visible on screen and not idle
+    private boolean mIdle; //whether nothing changes until a parameter does, see FRAME_RATE_MODE_SAVER
+    private boolean mAttachedToWindow;
+    private boolean mWindowVisible = true;
+    private Rect mVisibleRect = new Rect(); //the rect for computing the on-screen visibility
+    private long mPlayTimeNanos; //the played time in nanos, kept while stopped, the analytic raindrops follow it
+    private long mCloudTimeNanos; //the clouds' played time in nanos, it holds in FRAME_RATE_MODE_SAVER
+    private long mLastFrameTimeNanos; //the last frame time, 0 means the next frame is the first one
+    private long mPendingFrameNanos; //the time of the vsyncs skipped by the frame rate mode
+
+    private int mFrameRateMode = FRAME_RATE_MODE_FULL;
+    private FrameRateGovernor mFrameRateGovernor;
 
-    private ValueAnimator mLeftCloudAnimator;
-    private ValueAnimator mRightCloudAnimator;
-
-    private long mLeftCloudAnimatorPlayTime;
-    private long mRightCloudAnimatorPlayTime;
-
-    private float mMaxTranslationX; //The max translation x when do animation.
     private float mLeftCloudAnimatorValue; //The left cloud animator value
     private float mRightCloudAnimatorValue; //The right cloud animator value
 
-    private Path mComputePath = new Path(); //The path for computing
-    private Matrix mComputeMatrix = new Matrix(); //The matrix for computing
+    private int mRenderBackend = RENDER_BACKEND_AUTO;
+    private int mEngineMode = ENGINE_MODE_UI_THREAD;
+    private RainSimulation mSimulation; //the raindrops' simulation
+    private RainSimulationThread mSimulationThread; //runs the simulation in ENGINE_MODE_WORKER_THREAD while attached
+    private boolean mSimulationParamsPending; //the parameters reach the simulation thread once the current message is done
+    private long mRandomSeed;
+    private boolean mHasRandomSeed; //whether mRandomSeed is set, otherwise every run is different
 
-    private List<RainDrop> mRainDrops; //all the rain drops
-    private List<RainDrop> mRemovedRainDrops; //help to record the removed drops, avoid "java.util.ConcurrentModificationException"
-    private Stack<RainDrop> mRecycler;
+    private BakedRain.Key mBakedRainKey; //the baked rain wanted in ENGINE_MODE_BAKED
+    private BakedRain mBakedRain; //the baked rain drawn at mPlayTimeNanos, null while it is baked
 
-    private Random mOnlyRandom = new Random(); //the only random object
-    private Handler mHandler = new Handler(); //help to update the raindrops state task
+    //the extra depth layers, simulated on the UI thread and drawn behind the view's own raindrops
+    private RainLayer[] mRainLayers = new RainLayer[0];
+    private RainSimulation[] mLayerSimulations = new RainSimulation[0];
+    private Paint[] mLayerPaints = new Paint[0];
 
     private int mRainDropMaxNumber = DEFAULT_DROP_MAX_NUMBER;
     private int mRainDropCreationInterval = DEFAULT_DROP_CREATION_INTERVAL;
@@ -90,7 +204,8 @@ public class RainyView extends View {
     private float mRainDropMinSpeed = DEFAULT_DROP_MIN_SPEECH;
     private float mRainDropSlope = DEFAULT_DROP_SLOPE;
 
-    private long mRainDropCreationTime;
+
+    private boolean mBatchDrawEnabled = true; //draw all the raindrops with one drawLines call
     
     public RainyView(Context context) {
         this(context, null);
@@ -146,25 +261,18 @@ public class RainyView extends View {
         }
         
         TypedArray typedArray = getContext().obtainStyledAttributes(attrs, R.styleable.RainyView);
-        mLeftCloudColor = typedArray.getColor(R.styleable.RainyView_left_cloud_color, DEFAULT_LEFT_CLOUD_COLOR);
-        mRightCloudColor  = typedArray.getColor(R.styleable.RainyView_right_cloud_color, DEFAULT_RIGHT_CLOUD_COLOR);
-        mRainColor = typedArray.getColor(R.styleable.RainyView_raindrop_color, DEFAULT_RAIN_COLOR);
-        mRainDropMaxNumber  = typedArray.getInteger(R.styleable.RainyView_raindrop_max_number, DEFAULT_DROP_MAX_NUMBER);
-        mRainDropMinLength  = typedArray.getInteger(R.styleable.RainyView_raindrop_min_length, DEFAULT_DROP_MIN_LENGTH);
-        mRainDropMaxLength = typedArray.getInteger(R.styleable.RainyView_raindrop_max_length, DEFAULT_DROP_MAX_LENGTH);
-        mRainDropMinSpeed  = typedArray.getFloat(R.styleable.RainyView_raindrop_min_speed, DEFAULT_DROP_MIN_SPEECH);
-        mRainDropMaxSpeed  = typedArray.getFloat(R.styleable.RainyView_raindrop_max_speed, DEFAULT_DROP_MAX_SPEECH);
-        mRainDropCreationInterval = typedArray.getInteger(R.styleable.RainyView_raindrop_creation_interval, DEFAULT_DROP_CREATION_INTERVAL);
-        mRainDropSize = typedArray.getInteger(R.styleable.RainyView_raindrop_size, DEFAULT_DROP_SIZE);
-        mRainDropSlope = typedArray.getFloat(R.styleable.RainyView_raindrop_slope, DEFAULT_DROP_SLOPE);
+        setConfigValues(newConfigBuilder().setAttributes(typedArray).sanitize());
+        mEngineMode = typedArray.getInt(R.styleable.RainyView_engine_mode, ENGINE_MODE_UI_THREAD);
+        mRenderBackend = typedArray.getInt(R.styleable.RainyView_render_backend, RENDER_BACKEND_AUTO);
+        mFrameRateMode = typedArray.getInt(R.styleable.RainyView_frame_rate_mode, FRAME_RATE_MODE_FULL);
+        mAdaptiveQualityEnabled = typedArray.getBoolean(R.styleable.RainyView_adaptive_quality, false);
+        mPrewarmDuration = Math.max(0, typedArray.getInteger(R.styleable.RainyView_prewarm, 0));
 
         typedArray.recycle();
-        
-        checkValue();
     }
 
     private void init(){
-        setLayerType(LAYER_TYPE_SOFTWARE, null);
+        applyRenderBackend();
 
         mLeftCloudPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         mLeftCloudPaint.setColor(mLeftCloudColor);
@@ -180,535 +288,1789 @@ public class RainyView extends View {
         mRainPaint.setStyle(Paint.Style.STROKE);
         mRainPaint.setStrokeWidth(mRainDropSize);
 
-        mLeftCloudPath  = new Path();
-        mRightCloudPath = new Path();
-        mRainRect = new RectF();
-        mRainClipRect = new RectF();
+        mCloudGeometry = CloudGeometry.obtain(0, 0);
 
-        mRainDrops = new ArrayList<>(mRainDropMaxNumber);
-        mRemovedRainDrops = new ArrayList<>(mRainDropMaxNumber);
-        mRecycler = new Stack<>();
+        mSimulation = new RainSimulation(mRainDropMaxNumber);
+        applySimulationParams();
+        mFrameScheduler = new FrameScheduler(mFrameCallback);
+        mFrameRateGovernor = new FrameRateGovernor(getContext(), new FrameRateGovernor.Listener() {
+            @Override
+            public void onEffectiveModeChanged() {
+                if (mSimulationThread != null){
+                    mSimulationThread.setFrameIntervalNanos(mFrameRateGovernor.getFrameIntervalNanos());
+                }
+                wakeUp();
+            }
+        });
+        mFrameRateGovernor.setMode(mFrameRateMode);
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        stop();
-
-        mLeftCloudPath.reset();
-        mRightCloudPath.reset();
-
-        float centerX = w / 2; //view's center x coordinate
-        float minSize = Math.min(w, h); //get the min size
-
-        //************************compute left cloud**********************
-
-        float leftCloudWidth = minSize / 2.5f; //the width of cloud
-        float leftCloudBottomHeight = leftCloudWidth / 3f; //the bottom height of cloud
-        float leftCloudBottomRoundRadius = leftCloudBottomHeight; //the bottom round radius of cloud
-
-        float rightCloudTranslateX = leftCloudWidth * 2 / 3; //the distance of the cloud on the right
-        float leftCloudEndX = (w - leftCloudWidth - leftCloudWidth * CLOUD_SCALE_RATIO / 2) / 2 + leftCloudWidth; //the left cloud end x coordinate
-        float leftCloudEndY = h / 3; //clouds' end y coordinate
-
-        //add the bottom round rect
-        mLeftCloudPath.addRoundRect(new RectF(leftCloudEndX - leftCloudWidth, leftCloudEndY - leftCloudBottomHeight,
-                leftCloudEndX, leftCloudEndY), leftCloudBottomHeight, leftCloudBottomRoundRadius, Path.Direction.CW);
-
-        float leftCloudTopCenterY = leftCloudEndY - leftCloudBottomHeight;
-        float leftCloudRightTopCenterX = leftCloudEndX - leftCloudBottomRoundRadius;
-        float leftCloudLeftTopCenterX  = leftCloudEndX - leftCloudWidth + leftCloudBottomRoundRadius;
+        boolean running = mRunning;
+        stop(); //pause around the geometry swap only, a stopped animation stays stopped
+
+        mCloudGeometry = CloudGeometry.obtain(w, h);
+        mLastFrameBounds.set(0, 0, w, h); //the first frame redraws everything
+        updateCloudSprites();
+        applySimulationParams();
+        if (mPrewarmDuration > 0){
+            prewarm(mPrewarmDuration);
+        }
+        setupAnimator();
 
-        mLeftCloudPath.addCircle(leftCloudRightTopCenterX, leftCloudTopCenterY, leftCloudBottomRoundRadius * 3 / 4, Path.Direction.CW);
-        mLeftCloudPath.addCircle(leftCloudLeftTopCenterX, leftCloudTopCenterY, leftCloudBottomRoundRadius / 2, Path.Direction.CW);
-        //*******************************Done*****************************
+        if (running){
+            start();
+        }
+    }
 
-        //************************compute right cloud**********************
-        //The cloud on the right is CLOUD_SCALE_RATIO size of the left
-        float rightCloudCenterX = rightCloudTranslateX + centerX - leftCloudWidth / 2; //the right cloud center x
+    /**
+     * The clouds keep their phase across resizes, only the geometry they move on is replaced.
+     * */
+    private void setupAnimator(){
+        updateCloudAnimatorValues();
+    }
 
-        RectF calculateRect = new RectF();
-        mLeftCloudPath.computeBounds(calculateRect, false); //compute the left cloud's path bounds
+    /**
+     * The clouds' offsets are phase functions of {@link #mCloudTimeNanos},
+     * the left cloud goes 0 -> 1 and the right cloud goes 1 -> 0, then both reverse.
+     * */
+    private void updateCloudAnimatorValues(){
+        long playTime = mCloudTimeNanos / 1000000L;
+        mLeftCloudAnimatorValue = CloudGeometry.getLeftCloudAnimatorValue(playTime);
+        mRightCloudAnimatorValue = CloudGeometry.getRightCloudAnimatorValue(playTime);
+    }
 
-        mComputeMatrix.reset();
-        mComputeMatrix.preTranslate(rightCloudTranslateX, -calculateRect.height() * (1 - CLOUD_SCALE_RATIO) / 2);
-        mComputeMatrix.postScale(CLOUD_SCALE_RATIO, CLOUD_SCALE_RATIO, rightCloudCenterX, leftCloudEndY);
-        mLeftCloudPath.transform(mComputeMatrix, mRightCloudPath);
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        boolean measure = mFrameStatsListener != null || mAdaptiveQualityEnabled;
+        long startNanos = measure ? System.nanoTime() : 0;
 
-        float left = calculateRect.left + leftCloudBottomRoundRadius;
-        mRightCloudPath.computeBounds(calculateRect, false); //compute the right cloud's path bounds
+        beginTraceSection("RainyView#drawRainDrops");
+        canvas.save();
+//        canvas.drawRect(mCloudGeometry.rainRect, new Paint());
+        canvas.clipRect(mCloudGeometry.rainClipRect);
+        drawRainLayers(canvas);
+        drawRainDrops(canvas);
+        canvas.restore();
+        endTraceSection();
 
-        float right = calculateRect.right;
-        float top   = calculateRect.bottom;
-        //************************compute right cloud**********************
-        mRainRect.set(left, top, right, h * 3 / 4f); //compute the rect of rain...
-        mRainClipRect.set(0, mRainRect.top, w, mRainRect.bottom);
+        beginTraceSection("RainyView#drawClouds");
+        if (mCloudSpritesDirty){
+            updateCloudSprites();
+        }
 
-        mMaxTranslationX = leftCloudBottomRoundRadius / 2;
-        setupAnimator();
-    }
+        CloudGeometry geometry = mCloudGeometry;
+        drawCloud(canvas, mRightCloudSprite, geometry.rightCloudPath, mRightCloudPaint, geometry.getRightCloudTranslationX(mRightCloudAnimatorValue));
+        drawCloud(canvas, mLeftCloudSprite, geometry.leftCloudPath, mLeftCloudPaint, geometry.getLeftCloudTranslationX(mLeftCloudAnimatorValue));
+        endTraceSection();
 
-    private void setupAnimator(){
-        mLeftCloudAnimatorPlayTime = 0;
-        mRightCloudAnimatorPlayTime = 0;
-
-        mLeftCloudAnimator = ValueAnimator.ofFloat(0, 1);
-        mLeftCloudAnimator.setRepeatCount(ValueAnimator.INFINITE);
-        mLeftCloudAnimator.setDuration(1000);
-        mLeftCloudAnimator.setInterpolator(new LinearInterpolator());
-        mLeftCloudAnimator.setRepeatMode(ValueAnimator.REVERSE);
-        mLeftCloudAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                mLeftCloudAnimatorValue = (float) animation.getAnimatedValue();
-                invalidate();
+        if (measure){
+            long drawTimeNanos = System.nanoTime() - startNanos;
+            if (mFrameStatsListener != null){
+                recordFrameStats(drawTimeNanos);
             }
-        });
 
-        mRightCloudAnimator = ValueAnimator.ofFloat(1, 0f);
-        mRightCloudAnimator.setRepeatCount(ValueAnimator.INFINITE);
-        mRightCloudAnimator.setDuration(800);
-        mRightCloudAnimator.setInterpolator(new LinearInterpolator());
-        mRightCloudAnimator.setRepeatMode(ValueAnimator.REVERSE);
-        mRightCloudAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                mRightCloudAnimatorValue = (float) animation.getAnimatedValue();
-                invalidate();
+            //only a software drawing is done by now, the hardware only recorded it, see onWindowFrame()
+            if (mAdaptiveQualityEnabled && isDrawnInSoftware()
+                    && mQualityController.onFrame(drawTimeNanos + mFrameStepNanos)){
+                applyQualityLevel();
             }
-        });
-
-        mLeftCloudAnimator.start();
-        mRightCloudAnimator.start();
-        mHandler.post(mTask);
+            mFrameStepNanos = 0;
+        }
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
+    private void drawCloud(Canvas canvas, CloudSprite sprite, Path path, Paint paint, float translationX){
+        if (sprite.isValid()){
+            sprite.draw(canvas, translationX, mCloudSpritePaint);
+            return;
+        }
 
+        //translate the canvas instead of transforming the path, the unchanged path
+        //stays in the hardware pipeline's path cache and nothing is recomputed per frame
         canvas.save();
-//        canvas.drawRect(mRainRect, new Paint());
-        canvas.clipRect(mRainClipRect);
-        drawRainDrops(canvas);
+        canvas.translate(translationX, 0);
+        canvas.drawPath(path, paint);
         canvas.restore();
+    }
+
+    /**
+     * Rasterize the clouds into the sprites, within {@link #mCloudCacheMaxBytes} in total.
+     * A cloud whose sprite does not fit is drawn with its path.
+     * */
+    private void updateCloudSprites(){
+        mCloudSpritesDirty = false;
+        mLeftCloudSprite.rasterize(mCloudGeometry.leftCloudPath, mLeftCloudPaint, mCloudCacheMaxBytes);
+        mRightCloudSprite.rasterize(mCloudGeometry.rightCloudPath, mRightCloudPaint, mCloudCacheMaxBytes - mLeftCloudSprite.getByteCount());
+    }
 
-        mComputeMatrix.reset();
-        mComputeMatrix.postTranslate((mMaxTranslationX / 2) * mRightCloudAnimatorValue, 0);
-        mRightCloudPath.transform(mComputeMatrix, mComputePath);
-        canvas.drawPath(mComputePath, mRightCloudPaint);
+    private void applyRenderBackend(){
+        boolean software = mRenderBackend == RENDER_BACKEND_SOFTWARE
+                || (mRenderBackend == RENDER_BACKEND_AUTO && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2);
 
-        mComputeMatrix.reset();
-        mComputeMatrix.postTranslate(mMaxTranslationX * mLeftCloudAnimatorValue, 0);
-        mLeftCloudPath.transform(mComputeMatrix, mComputePath);
-        canvas.drawPath(mComputePath, mLeftCloudPaint);
+        //no hardware layer either, an offscreen layer would be redrawn every frame anyway
+        setLayerType(software ? LAYER_TYPE_SOFTWARE : LAYER_TYPE_NONE, null);
     }
 
     /**
-     * Start the animation.
+     * Start the animation, it pauses by itself while this view can not be seen.
      * */
     public void start(){
-        if (mLeftCloudAnimator != null
-                && !mLeftCloudAnimator.isRunning()){
-            mLeftCloudAnimator.setCurrentPlayTime(mLeftCloudAnimatorPlayTime);
-            mLeftCloudAnimator.start();
-        }
-
-        if (mRightCloudAnimator != null
-                && !mRightCloudAnimator.isRunning()){
-            mRightCloudAnimator.setCurrentPlayTime(mRightCloudAnimatorPlayTime);
-            mRightCloudAnimator.start();
+        mRunning = true;
+        mIdle = false;
+        if (mEngineMode == ENGINE_MODE_BAKED && mBakedRain == null){
+            updateBakedRain(); //release() dropped it
         }
-
-        mHandler.removeCallbacks(mTask);
-        mHandler.post(mTask);
+        updateAnimating();
     }
 
     /**
      * Stop the animation
      * */
     public void stop(){
-        if (mLeftCloudAnimator != null && mLeftCloudAnimator.isRunning()){
-            mLeftCloudAnimatorPlayTime = mLeftCloudAnimator.getCurrentPlayTime();
-            mLeftCloudAnimator.cancel();
-        }
-
-        if (mRightCloudAnimator != null && mRightCloudAnimator.isRunning()){
-            mRightCloudAnimatorPlayTime = mRightCloudAnimator.getCurrentPlayTime();
-            mRightCloudAnimator.cancel();
-        }
-
-        mHandler.removeCallbacks(mTask);
+        mRunning = false;
+        updateAnimating();
     }
 
     /**
-     * Release this view
+     * Run the frame clock while the animation is started and this view is visible on screen,
+     * pause it otherwise. The played time and the raindrops are kept while paused.
      * */
-    public void release(){
-        stop();
-
-        if (mLeftCloudAnimator != null){
-            mLeftCloudAnimator.removeAllUpdateListeners();
+    private void updateAnimating(){
+        if (mFrameScheduler == null){
+            return; //the visibility may be dispatched before init()
         }
 
-        if (mRightCloudAnimator != null){
-            mRightCloudAnimator.removeAllUpdateListeners();
+        boolean animating = mRunning && !mIdle && isVisibleOnScreen();
+        if (animating == mAnimating){
+            return;
         }
 
-        mRemovedRainDrops.clear();
-        mRainDrops.clear();
-        mRecycler.clear();
-        mHandler = null;
-    }
+        mAnimating = animating;
+        if (animating){
+            mLastFrameTimeNanos = 0;
+            if (mRainGroup != null){
+                mRainGroup.onViewStateChanged();
+            }else{
+                mFrameScheduler.start();
+            }
 
+            if (mEngineMode == ENGINE_MODE_WORKER_THREAD){
+                flushSimulationParams();
+                ensureSimulationThread().start();
+            }else{
+                mSimulation.resetClock();
+            }
+        }else{
+            mFrameScheduler.stop();
+            if (mRainGroup != null){
+                mRainGroup.onViewStateChanged();
+            }
+
+            if (mSimulationThread != null){
+                mSimulationThread.pause();
+            }
+        }
+    }
 
     /**
-     * To optimize performance, use recycler {@link #mRecycler}
+     * Resume rendering if it idles, because something may change again.
      * */
-    private RainDrop obtainRainDrop(){
-        if (mRecycler.isEmpty()){
-            return new RainDrop();
+    private void wakeUp(){
+        if (mIdle){
+            mIdle = false;
+            updateAnimating();
         }
-
-        return mRecycler.pop();
     }
 
     /**
-     * Recycling the drop that are no longer in use
+     * Whether nothing moves until a parameter changes, i.e. the clouds hold still
+     * and there are no raindrops and none can be created.
      * */
-    private void recycle(RainDrop rainDrop){
-        if (rainDrop == null){
-            return;
+    private boolean isSceneStatic(){
+        if (mFrameRateGovernor.getEffectiveMode() != FRAME_RATE_MODE_SAVER
+                || ((getEffectiveRainDropMaxNumber() > 0 || mRainLayers.length > 0) && !mCloudGeometry.rainRect.isEmpty())){
+            return false;
         }
 
-        if (mRecycler.size() >= mRainDropMaxNumber){
-            mRecycler.pop();
+        if (mSimulationThread != null){
+            return mDrawnSnapshot != null && mDrawnSnapshot.dropCount == 0;
         }
 
-        mRecycler.push(rainDrop);
+        return mSimulation.getDropCount() == 0;
+    }
+
+    /**
+     * Whether this view is attached, shown with all its ancestors, in a visible window
+     * and not entirely scrolled or clipped out of it.
+     * */
+    private boolean isVisibleOnScreen(){
+        return mAttachedToWindow && mWindowVisible && isShown()
+                && getGlobalVisibleRect(mVisibleRect);
     }
 
     /**
-     * The drop's handled task.
-     * Call handler to schedule the task.
+     * Checks the on-screen visibility when anything in the window scrolls or is laid out.
      * */
-    private Runnable mTask = new Runnable() {
+    private VisibilityListener mVisibilityListener = new VisibilityListener();
+
+    private class VisibilityListener implements ViewTreeObserver.OnScrollChangedListener,
+            ViewTreeObserver.OnGlobalLayoutListener {
         @Override
-        public void run() {
-            createRainDrop();
-            updateRainDropState();
+        public void onScrollChanged() {
+            updateAnimating();
+        }
 
-            mHandler.postDelayed(this, 20);
+        @Override
+        public void onGlobalLayout() {
+            updateAnimating();
         }
-    };
+    }
 
     /**
-     * Now create a random raindrop.
+     * Invalidate the union of the regions drawn in the last and in the current frame,
+     * i.e. the raindrops and the clouds at their animated offsets.
+     * Only a window drawn in software clips to the dirty region, a hardware accelerated one redraws the whole view,
+     * even into a software layer, so the whole view is invalidated there.
      * */
-    private void createRainDrop() {
-        if (mRainDrops.size() >= mRainDropMaxNumber
-                || mRainRect.isEmpty()) {
+    @SuppressWarnings("deprecation") //invalidate(int, int, int, int) is deprecated since API 28, software drawn windows still clip to it
+    private void invalidateDirtyRegion(){
+        computeFrameBounds(mFrameBounds);
+
+        mDirtyBounds.set(mFrameBounds);
+        mDirtyBounds.union(mLastFrameBounds);
+        mLastFrameBounds.set(mFrameBounds);
+
+        int viewArea = getWidth() * getHeight();
+        if (mDirtyBounds.isEmpty() || viewArea <= 0){
+            mDirtyAreaRatio = 0;
             return;
         }
 
-        long current = System.currentTimeMillis();
-        if ((current - mRainDropCreationTime) < mRainDropCreationInterval){
+        if (isHardwareAccelerated()){
+            mDirtyAreaRatio = 1;
+            invalidate();
             return;
         }
 
-        if (mRainDropMinLength > mRainDropMaxLength
-                || mRainDropMinSpeed > mRainDropMaxSpeed){
-            throw new IllegalArgumentException("The minimum value cannot be greater than the maximum value.");
+        int left = (int) Math.floor(mDirtyBounds.left);
+        int top = (int) Math.floor(mDirtyBounds.top);
+        int right = (int) Math.ceil(mDirtyBounds.right);
+        int bottom = (int) Math.ceil(mDirtyBounds.bottom);
+        mDirtyAreaRatio = Math.min(1f, (right - left) * (bottom - top) / (float) viewArea);
+        invalidate(left, top, right, bottom);
+    }
+
+    private void computeFrameBounds(RectF bounds){
+        bounds.setEmpty();
+
+        CloudGeometry geometry = mCloudGeometry;
+        if (mSimulationThread != null || mBakedRain != null){
+            //the snapshot drawn is picked at drawing time, so cover the whole rain
+            bounds.set(geometry.rainClipRect);
+        }else if (mSimulation.getLineBounds(mComputeBounds)){
+            float halfStroke = mRainPaint.getStrokeWidth() / 2; //the round caps
+            bounds.set(mComputeBounds[0] - halfStroke, mComputeBounds[1] - halfStroke,
+                    mComputeBounds[2] + halfStroke, mComputeBounds[3] + halfStroke);
+            if (!bounds.intersect(geometry.rainClipRect)){
+                bounds.setEmpty();
+            }
         }
 
-        mRainDropCreationTime = current;
+        if (mLayerSimulations.length > 0){
+            bounds.union(geometry.rainClipRect);
+        }
 
-        RainDrop rainDrop = obtainRainDrop();
-        rainDrop.slope = mRainDropSlope;
-        rainDrop.speedX = mRainDropMinSpeed + mOnlyRandom.nextFloat() * mRainDropMaxSpeed;
-        rainDrop.speedY = rainDrop.speedX * Math.abs(rainDrop.slope);
+        RectF leftCloudBounds = geometry.leftCloudBounds;
+        float leftTranslationX = geometry.getLeftCloudTranslationX(mLeftCloudAnimatorValue);
+        bounds.union(leftCloudBounds.left + leftTranslationX, leftCloudBounds.top,
+                leftCloudBounds.right + leftTranslationX, leftCloudBounds.bottom);
 
-        float rainDropLength = mRainDropMinLength + mOnlyRandom.nextInt(mRainDropMaxLength - mRainDropMinLength);
-        double degree = Math.toDegrees(Math.atan(rainDrop.slope));
+        RectF rightCloudBounds = geometry.rightCloudBounds;
+        float rightTranslationX = geometry.getRightCloudTranslationX(mRightCloudAnimatorValue);
+        bounds.union(rightCloudBounds.left + rightTranslationX, rightCloudBounds.top,
+                rightCloudBounds.right + rightTranslationX, rightCloudBounds.bottom);
+    }
 
-        rainDrop.xLength = (float) Math.abs(Math.cos(degree * Math.PI/180) * rainDropLength);
-        rainDrop.yLength = (float) Math.abs(Math.sin(degree * Math.PI/180) * rainDropLength);
+    /**
+     * Release this view, it can still be started again afterwards
+     * */
+    public void release(){
+        stop();
+        quitSimulationThread();
+        mSimulation.clear();
 
-        rainDrop.x = mRainRect.left + mOnlyRandom.nextInt((int) mRainRect.width()); //random x coordinate
-        rainDrop.y = mRainRect.top - rainDrop.yLength; //the fixed y coordinate
+        mBakedRainKey = null;
+        mBakedRain = null; //the frames stay in the cache
+        for (RainSimulation simulation : mLayerSimulations){
+            simulation.clear();
+        }
 
-        mRainDrops.add(rainDrop);
+        mLeftCloudSprite.release();
+        mRightCloudSprite.release();
+        mCloudSpritesDirty = true;
     }
 
+    private RainSimulationThread ensureSimulationThread(){
+        if (mSimulationThread == null){
+            mSimulationThread = new RainSimulationThread(mSimulation);
+            mSimulationThread.setFrameIntervalNanos(mFrameRateGovernor.getFrameIntervalNanos());
+        }
+
+        return mSimulationThread;
+    }
 
     /**
-     * Update all the raindrops state
+     * Quit the simulation thread and take the simulation back, the current drops are discarded.
      * */
-    private void updateRainDropState() {
-        mRemovedRainDrops.clear();
+    private void quitSimulationThread(){
+        if (mSimulationThread == null){
+            return;
+        }
 
-        for (RainDrop rainDrop : mRainDrops) {
-            if (rainDrop.y - rainDrop.yLength > mRainRect.bottom) {
-                mRemovedRainDrops.add(rainDrop);
-                recycle(rainDrop);
-            } else {
-                if (rainDrop.slope >= 0) {
-                    rainDrop.x += rainDrop.speedX;
-                }else{
-                    rainDrop.x -= rainDrop.speedX;
-                }
-                rainDrop.y += rainDrop.speedY;
+        mSimulationThread.quit();
+        mSimulationThread = null;
+        mDrawnSnapshot = null;
+        resetFrameStats();
+
+        //the old simulation may still be in use on the quitting thread
+        mSimulation = new RainSimulation(mRainDropMaxNumber);
+        applySimulationParams();
+        applyRandomSeed();
+    }
+
+    /**
+     * Hand the current parameters to the simulation, on the simulation thread if it is running there.
+     * The simulation thread may step in between two setters, so it gets all the parameters
+     * set within one message at once, after that message.
+     * */
+    private void applySimulationParams(){
+        if (mSimulationThread != null){
+            if (!mSimulationParamsPending){
+                mSimulationParamsPending = true;
+                post(mFlushSimulationParams);
             }
+        }else{
+            newSimulationParams().run();
         }
+        applyLayerParams();
+        updateBakedRain();
+        wakeUp();
+    }
 
-        if (!mRemovedRainDrops.isEmpty()) {
-            mRainDrops.removeAll(mRemovedRainDrops);
+    private Runnable mFlushSimulationParams = new Runnable() {
+        @Override
+        public void run() {
+            flushSimulationParams();
         }
+    };
 
-        if (!mRainDrops.isEmpty()){
-            invalidate();
+    /**
+     * Post the pending parameters to the simulation thread, before anything else is posted to it.
+     * While a minimum is greater than its maximum they are held back, the simulation keeps the last
+     * valid ones until the other bound is set as well, instead of throwing on the simulation thread.
+     * */
+    private void flushSimulationParams(){
+        if (!mSimulationParamsPending){
+            return;
         }
-    }
 
-    private void drawRainDrops(Canvas canvas){
-        for (RainDrop rainDrop : mRainDrops){
-            canvas.drawLine(rainDrop.x, rainDrop.y,
-                    rainDrop.slope > 0 ? rainDrop.x + rainDrop.xLength : rainDrop.x - rainDrop.xLength,
-                    rainDrop.y + rainDrop.yLength,
-                    mRainPaint);
+        mSimulationParamsPending = false;
+        removeCallbacks(mFlushSimulationParams);
+        if (mSimulationThread == null
+                || mRainDropMinLength > mRainDropMaxLength || mRainDropMinSpeed > mRainDropMaxSpeed){
+            return; //without the thread they were applied already
         }
+
+        mSimulationThread.post(newSimulationParams());
     }
 
     /**
-     * The rain drop class
+     * A snapshot of the current parameters that applies them to the simulation when run.
      * */
-    private class RainDrop{
-        float speedX;   //the drop's x coordinate speed
-        float speedY;   //the drop's y coordinate speed
-        float xLength; //the drop's x length
-        float yLength; //the drop's y length
-        float x;        //the drop's start x
-        float y;        //the drop's start y
-        float slope; //the drop's slope
+    private Runnable newSimulationParams(){
+        final RainSimulation simulation = mSimulation;
+        final RectF rainRect = mCloudGeometry.rainRect;
+        final float left = rainRect.left;
+        final float top = rainRect.top;
+        final float right = rainRect.right;
+        final float bottom = rainRect.bottom;
+        final int maxNumber = getEffectiveRainDropMaxNumber();
+        final int creationInterval = getEffectiveRainDropCreationInterval();
+        final int minLength = mRainDropMinLength;
+        final int maxLength = mRainDropMaxLength;
+        final float minSpeed = mRainDropMinSpeed;
+        final float maxSpeed = mRainDropMaxSpeed;
+        final float slope = mRainDropSlope;
+        final boolean baked = mEngineMode == ENGINE_MODE_BAKED;
+        final boolean analytic = mEngineMode == ENGINE_MODE_ANALYTIC || baked;
+        final long bakedRandomSeed = getBakedRandomSeed();
+        final RainSimulation.Tracer tracer = mTraceEnabled ? new AndroidTracer() : null;
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                simulation.setBounds(left, top, right, bottom);
+                simulation.setRainDropMaxNumber(maxNumber);
+                simulation.setRainDropCreationInterval(creationInterval);
+                simulation.setRainDropLength(minLength, maxLength);
+                simulation.setRainDropSpeed(minSpeed, maxSpeed);
+                simulation.setRainDropSlope(slope);
+                simulation.setTracer(tracer);
+                simulation.setLoopPeriod(baked ? BakedRain.LOOP_PERIOD_NANOS : 0);
+                if (baked){
+                    simulation.setRandomSeed(bakedRandomSeed); //the same drops as the baked rain
+                }
+                simulation.setAnalytic(analytic);
+                simulation.setTime(simulation.getTime()); //recompute the analytic drops with the new parameters
+            }
+        };
     }
 
-    private void checkValue(){
-        checkRainDropCreationIntervalValue();
-        checkRainDropLengthValue();
-        checkRainDropManNumberValue();
-        checkRainDropSizeValue();
-        checkRainDropSpeedValue();
-        checkRainDropSlopeValue();
-    }
+    /**
+     * Hand the current parameters to the layers' simulations, their max numbers are scaled
+     * by the quality level, so the layers thin out along with the view's own raindrops.
+     * */
+    private void applyLayerParams(){
+        RectF rainRect = mCloudGeometry.rainRect;
+        boolean analytic = mEngineMode == ENGINE_MODE_ANALYTIC || mEngineMode == ENGINE_MODE_BAKED;
+        float fraction = mAdaptiveQualityEnabled ? mQualityController.getFraction() : 1;
+        boolean antiAlias = isEffectiveAntiAlias();
+
+        for (int i = 0; i < mRainLayers.length; i++){
+            RainLayer layer = mRainLayers[i];
+            int maxNumber = Math.round(layer.rainDropMaxNumber * fraction);
+            int creationInterval = layer.rainDropCreationInterval;
+            if (maxNumber > 0 && maxNumber != layer.rainDropMaxNumber){
+                creationInterval = (int) ((long) creationInterval * layer.rainDropMaxNumber / maxNumber);
+            }
 
-    private void checkRainDropManNumberValue(){
-        if (mRainDropMaxNumber < 0){
-            mRainDropMaxNumber = DEFAULT_DROP_MAX_NUMBER;
+            RainSimulation simulation = mLayerSimulations[i];
+            simulation.setBounds(rainRect.left, rainRect.top, rainRect.right, rainRect.bottom);
+            simulation.setRainDropMaxNumber(maxNumber);
+            simulation.setRainDropCreationInterval(creationInterval);
+            simulation.setRainDropLength(layer.rainDropMinLength, layer.rainDropMaxLength);
+            simulation.setRainDropSpeed(layer.rainDropMinSpeed, layer.rainDropMaxSpeed);
+            simulation.setRainDropSlope(mRainDropSlope);
+            simulation.setLoopPeriod(mEngineMode == ENGINE_MODE_BAKED ? BakedRain.LOOP_PERIOD_NANOS : 0);
+            simulation.setAnalytic(analytic);
+            simulation.setTime(simulation.getTime());
+
+            mLayerPaints[i].setAntiAlias(antiAlias);
         }
     }
 
-    private void checkRainDropSizeValue(){
-        if (mRainDropSize < 0){
-            mRainDropSize = DEFAULT_DROP_SIZE;
+    /**
+     * The layers' paints have the rain color faded by their alpha.
+     * */
+    private void applyLayerColors(){
+        for (int i = 0; i < mRainLayers.length; i++){
+            int alpha = Math.round(Color.alpha(mRainColor) * mRainLayers[i].alpha);
+            mLayerPaints[i].setColor((mRainColor & 0x00FFFFFF) | (alpha << 24));
         }
     }
 
-    private void checkRainDropCreationIntervalValue(){
-        if (mRainDropCreationInterval < 0){
-            mRainDropCreationInterval = DEFAULT_DROP_CREATION_INTERVAL;
+    /**
+     * Seed every layer differently from {@link #mRandomSeed} if it is set.
+     * */
+    private void applyLayerRandomSeeds(){
+        if (!mHasRandomSeed){
+            return;
         }
-    }
 
-    private void checkRainDropLengthValue(){
-        if (mRainDropMinLength < 0
-                || mRainDropMaxLength < 0){
-            mRainDropMinLength = DEFAULT_DROP_MIN_LENGTH;
-            mRainDropMaxLength = DEFAULT_DROP_MAX_LENGTH;
+        for (int i = 0; i < mLayerSimulations.length; i++){
+            mLayerSimulations[i].setRandomSeed(mRandomSeed + i + 1);
         }
     }
 
-    private void checkRainDropSpeedValue(){
-        if (mRainDropMinSpeed < 0
-                || mRainDropMaxSpeed < 0){
-            mRainDropMinSpeed = DEFAULT_DROP_MIN_SPEECH;
-            mRainDropMaxSpeed = DEFAULT_DROP_MAX_SPEECH;
+    /**
+     * Look up or bake the rain of the current size and parameters in {@link #ENGINE_MODE_BAKED}.
+     * */
+    private void updateBakedRain(){
+        if (mEngineMode != ENGINE_MODE_BAKED){
+            mBakedRainKey = null;
+            mBakedRain = null;
+            return;
         }
-    }
 
-    private void checkRainDropSlopeValue(){
-        if (mRainDropSlope < 0){
-            mRainDropSlope = DEFAULT_DROP_SLOPE;
+        CloudGeometry geometry = mCloudGeometry;
+        BakedRain.Key key = new BakedRain.Key(geometry.width, geometry.height,
+                getEffectiveRainDropMaxNumber(), getEffectiveRainDropCreationInterval(),
+                mRainDropMinLength, mRainDropMaxLength, mRainDropSize,
+                mRainDropMinSpeed, mRainDropMaxSpeed, mRainDropSlope,
+                isEffectiveAntiAlias(), getBakedRandomSeed());
+        if (key.equals(mBakedRainKey)){
+            return;
         }
-    }
 
+        if (mBakedRain != null){
+            mSimulation.setTime(mPlayTimeNanos); //go on live from where the baked rain is
+        }
 
-    /**
-     * Set the color of the left cloud
-     * */
-    public void setLeftCloudColor(int leftCloudColor) {
-        this.mLeftCloudColor = leftCloudColor;
-        mLeftCloudPaint.setColor(mLeftCloudColor);
-        postInvalidate();
+        mBakedRainKey = key;
+        mBakedRain = BakedRain.get(key);
+        if (mBakedRain == null && geometry.width > 0 && geometry.height > 0 && BakedRain.fits(key)){
+            BakedRain.bake(key, mBakeCallback);
+        }
     }
 
-    /**
-     * Get the color of the left cloud
-     * */
-    public int getLeftCloudColor() {
-        return mLeftCloudColor;
-    }
+    private BakedRain.Callback mBakeCallback = new BakedRain.Callback() {
+        @Override
+        public void onBaked(BakedRain.Key key, BakedRain bakedRain) {
+            if (bakedRain == null || !key.equals(mBakedRainKey)){
+                return; //failed, or the parameters changed meanwhile
+            }
 
+            mBakedRain = bakedRain;
+            invalidate();
+        }
+    };
 
     /**
-     * Set the color of the left cloud
+     * Views with no random seed set share the same baked rain.
      * */
-    public void setRightCloudColor(int rightCloudColor) {
-        this.mRightCloudColor = rightCloudColor;
-        mRightCloudPaint.setColor(mRightCloudColor);
-        postInvalidate();
+    private long getBakedRandomSeed(){
+        return mHasRandomSeed ? mRandomSeed : 0;
     }
 
     /**
-     * Get the color of the right cloud
+     * Hand the current quality level to the simulation and the rain paint.
      * */
-    public int getRightCloudColor() {
-        return mRightCloudColor;
+    private void applyQualityLevel(){
+        mRainPaint.setAntiAlias(isEffectiveAntiAlias());
+        applySimulationParams();
     }
 
     /**
-     * Set the color of all the raindrops
+     * Restart the simulation's random sequence from {@link #mRandomSeed} if it is set.
      * */
-    public void setRainDropColor(int rainDropColor) {
-        this.mRainColor = rainDropColor;
-        mRainPaint.setColor(mRainColor);
-        postInvalidate();
+    private void applyRandomSeed(){
+        if (!mHasRandomSeed){
+            return;
+        }
+
+        final RainSimulation simulation = mSimulation;
+        final long randomSeed = mRandomSeed;
+        Runnable apply = new Runnable() {
+            @Override
+            public void run() {
+                simulation.setRandomSeed(randomSeed);
+            }
+        };
+
+        if (mSimulationThread != null){
+            flushSimulationParams();
+            mSimulationThread.post(apply);
+        }else{
+            apply.run();
+        }
+        applyLayerRandomSeeds();
     }
 
     /**
-     * Get the color of all the raindrops
+     * Called once per vsync by {@link #mFrameScheduler} if this view is not in a {@link RainGroup}.
      * */
-    public int getRainDropColor() {
-        return mRainColor;
-    }
+    private FrameScheduler.Callback mFrameCallback = new FrameScheduler.Callback() {
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            long elapsedNanos = 0;
+            if (mLastFrameTimeNanos != 0 && frameTimeNanos > mLastFrameTimeNanos){
+                elapsedNanos = frameTimeNanos - mLastFrameTimeNanos;
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            doFrame(elapsedNanos);
+        }
+    };
 
     /**
-     * Get the max number of the {@link RainDrop}
+     * Advance the clouds and the drops once, then invalidate once.
+     * Called by this view's own clock or by its {@link RainGroup}.
      * */
-    public int getRainDropMaxNumber() {
-        return mRainDropMaxNumber;
+    void doFrame(long elapsedNanos){
+        if (mAdaptiveQualityEnabled && elapsedNanos > 0 && mFrameMetricsListener == null && !isDrawnInSoftware()){
+            //without the frame metrics a hardware drawn frame costs the time it came late by,
+            //half a vsync interval on average is about every other frame dropped
+            if (mQualityController.onFrame(Math.max(0, elapsedNanos - mVsyncIntervalNanos), mVsyncIntervalNanos / 2)){
+                applyQualityLevel();
+            }
+        }
+
+        mPendingFrameNanos += elapsedNanos;
+        if (mPendingFrameNanos < mFrameRateGovernor.getFrameIntervalNanos() - FrameScheduler.FRAME_INTERVAL_SLOP_NANOS){
+            return; //skip this vsync
+        }
+        elapsedNanos = mPendingFrameNanos;
+        mPendingFrameNanos = 0;
+
+        mPlayTimeNanos += elapsedNanos;
+        if (mFrameRateGovernor.getEffectiveMode() != FRAME_RATE_MODE_SAVER){
+            mCloudTimeNanos += elapsedNanos; //only the clouds hold still
+        }
+
+        updateCloudAnimatorValues();
+        if (mBakedRain != null){
+            //only the frame to draw changes, it is picked by the played time
+        }else if (mSimulationThread == null){
+            if (mFrameStatsListener != null || mAdaptiveQualityEnabled){
+                long startNanos = System.nanoTime();
+                advanceSimulation(mSimulation, elapsedNanos);
+                mFrameStepNanos = System.nanoTime() - startNanos;
+                mSimulationTimeNanos += mFrameStepNanos;
+            }else{
+                advanceSimulation(mSimulation, elapsedNanos);
+            }
+        }
+
+        for (RainSimulation simulation : mLayerSimulations){
+            advanceSimulation(simulation, elapsedNanos);
+        }
+        invalidateDirtyRegion();
+
+        if (isSceneStatic()){
+            mIdle = true; //the last frame is drawn, nothing changes from here
+            updateAnimating();
+        }
     }
 
     /**
-     * Set the max number of the {@link RainDrop}
+     * Whether onDraw() rasterizes this view, by a software layer or in a window drawn in software.
+     * Only then the time spent in it is the time the drawing takes.
      * */
-    public void setRainDropMaxNumber(int rainDropMaxNumber) {
-        this.mRainDropMaxNumber = rainDropMaxNumber;
-        checkRainDropManNumberValue();
+    private boolean isDrawnInSoftware(){
+        return !isHardwareAccelerated() || getLayerType() == LAYER_TYPE_SOFTWARE;
     }
 
     /**
-     * Get the creation interval of the {@link RainDrop}
+     * Record the total duration of a frame of the window for the adaptive quality, against the vsync interval.
      * */
-    public int getRainDropCreationInterval() {
-        return mRainDropCreationInterval;
+    private void onWindowFrame(long durationNanos){
+        if (mAdaptiveQualityEnabled && mAnimating && !isDrawnInSoftware()
+                && mQualityController.onFrame(durationNanos, mVsyncIntervalNanos)){
+            applyQualityLevel();
+        }
     }
 
     /**
-     * Get the creation interval of the {@link RainDrop}
+     * Measure the frames of the window by the frame metrics while the adaptive quality is enabled and attached,
+     * since {@link Build.VERSION_CODES#N}. Only the activity's own window is measured, in any other
+     * the vsyncs are measured instead, see {@link #doFrame(long)}.
      * */
-    public void setRainDropCreationInterval(int rainDropCreationInterval) {
-        this.mRainDropCreationInterval = rainDropCreationInterval;
-        checkRainDropCreationIntervalValue();
-        postInvalidate();
+    private void updateFrameMetrics(){
+        boolean measure = mAdaptiveQualityEnabled && mAttachedToWindow
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        if (measure && mFrameMetricsListener == null){
+            Window window = findActivityWindow();
+            if (window != null && window.peekDecorView() == getRootView()){
+                mFrameMetricsListener = WindowFrameMetrics.register(window, this);
+                mFrameMetricsWindow = window;
+            }
+        }else if (!measure && mFrameMetricsListener != null){
+            WindowFrameMetrics.unregister(mFrameMetricsWindow, mFrameMetricsListener);
+            mFrameMetricsListener = null;
+            mFrameMetricsWindow = null;
+        }
     }
 
-    /**
-     * Get the min length of the {@link RainDrop}
-     * */
-    public int getRainDropMinLength() {
-        return mRainDropMinLength;
+    private Window findActivityWindow(){
+        Context context = getContext();
+        while (context instanceof ContextWrapper){
+            if (context instanceof Activity){
+                return ((Activity) context).getWindow();
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
     }
 
     /**
-     * Set the min length of the {@link RainDrop}
+     * Step a simulation of the UI thread by the elapsed time, or move an analytic one to the played time,
+     * so the analytic raindrops always match {@link #getTime()}.
      * */
-    public void setRainDropMinLength(int rainDropMinLength) {
-        this.mRainDropMinLength = rainDropMinLength;
-        checkRainDropLengthValue();
+    private void advanceSimulation(RainSimulation simulation, long elapsedNanos){
+        if (simulation.isAnalytic()){
+            simulation.setTime(mPlayTimeNanos);
+        }else{
+            simulation.step(elapsedNanos);
+        }
     }
 
-    /**
-     * Get the max length of the {@link RainDrop}
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttachedToWindow = true;
+
+        ViewTreeObserver observer = getViewTreeObserver();
+        observer.addOnScrollChangedListener(mVisibilityListener);
+        observer.addOnGlobalLayoutListener(mVisibilityListener);
+        mFrameRateGovernor.onAttachedToWindow();
+
+        WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager != null ? windowManager.getDefaultDisplay().getRefreshRate() : 0;
+        mVsyncIntervalNanos = (long) (1000000000L / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+        updateFrameMetrics();
+
+        if (mRainGroup != null){
+            mRainGroup.add(this);
+        }
+        updateAnimating();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mAttachedToWindow = false;
+
+        ViewTreeObserver observer = getViewTreeObserver();
+        observer.removeOnScrollChangedListener(mVisibilityListener);
+        observer.removeGlobalOnLayoutListener(mVisibilityListener); //the only one before API 16
+        mFrameRateGovernor.onDetachedFromWindow();
+        updateFrameMetrics();
+
+        updateAnimating();
+        quitSimulationThread(); //a detached view keeps no thread, it is created again once animating
+        if (mRainGroup != null){
+            mRainGroup.remove(this);
+        }
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateAnimating(); //this view or an ancestor is shown or hidden
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        mWindowVisible = visibility == VISIBLE;
+        updateAnimating();
+    }
+
+    /**
+     * Draw every layer with one call, from the first to the last.
+     * */
+    private void drawRainLayers(Canvas canvas){
+        for (int i = 0; i < mLayerSimulations.length; i++){
+            RainSimulation simulation = mLayerSimulations[i];
+            int lineCount = simulation.getLineCount();
+            if (lineCount > 0){
+                canvas.drawLines(simulation.getLines(), 0, lineCount, mLayerPaints[i]);
+            }
+        }
+    }
+
+    private void drawRainDrops(Canvas canvas){
+        if (mBakedRain != null){
+            mBakedRain.draw(canvas, mPlayTimeNanos, mRainPaint);
+            return;
+        }
+
+        float[] lines;
+        int lineCount;
+        if (mSimulationThread != null){
+            RainSimulationThread.Snapshot snapshot = mSimulationThread.acquireLatestSnapshot();
+            lines = snapshot.lines;
+            lineCount = snapshot.lineCount;
+            mDrawnSnapshot = snapshot;
+        }else{
+            lines = mSimulation.getLines();
+            lineCount = mSimulation.getLineCount();
+            mDrawnSnapshot = null;
+        }
+
+        if (mTraceEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q){
+            AndroidTracer.setCounter("RainyView#drops", lineCount / 4);
+        }
+
+        if (lineCount == 0){
+            return;
+        }
+
+        if (mBatchDrawEnabled){
+            canvas.drawLines(lines, 0, lineCount, mRainPaint);
+            return;
+        }
+
+        for (int i = 0; i < lineCount; i += 4){
+            canvas.drawLine(lines[i], lines[i + 1], lines[i + 2], lines[i + 3], mRainPaint);
+        }
+    }
+
+    private void recordFrameStats(long drawTimeNanos){
+        int dropCount;
+        long spawnCount;
+        long poolHitCount;
+        long poolMissCount;
+        long droppedStepCount;
+        long simulationTimeNanos;
+
+        RainSimulationThread.Snapshot snapshot = mDrawnSnapshot;
+        if (snapshot != null){
+            dropCount = snapshot.dropCount;
+            spawnCount = snapshot.spawnCount;
+            poolHitCount = snapshot.poolHitCount;
+            poolMissCount = snapshot.poolMissCount;
+            droppedStepCount = snapshot.droppedStepCount;
+            simulationTimeNanos = snapshot.simulationTimeNanos;
+        }else{
+            dropCount = mSimulation.getDropCount();
+            spawnCount = mSimulation.getSpawnCount();
+            poolHitCount = mSimulation.getPoolHitCount();
+            poolMissCount = mSimulation.getPoolMissCount();
+            droppedStepCount = mSimulation.getDroppedStepCount();
+            simulationTimeNanos = mSimulationTimeNanos;
+        }
+
+        if (mFrameStatsBaselinePending){
+            mFrameStatsBaselinePending = false;
+            mLastSpawnCount = spawnCount;
+            mLastPoolHitCount = poolHitCount;
+            mLastPoolMissCount = poolMissCount;
+            mLastDroppedStepCount = droppedStepCount;
+            mLastSimulationTimeNanos = simulationTimeNanos;
+        }
+
+        FrameStats stats = mFrameStats;
+        stats.frameCount++;
+        stats.drawTimeNanos += drawTimeNanos;
+        stats.simulationTimeNanos += Math.max(0, simulationTimeNanos - mLastSimulationTimeNanos);
+        stats.activeDropCount = dropCount;
+        stats.spawnCount += Math.max(0, spawnCount - mLastSpawnCount);
+        stats.poolHitCount += Math.max(0, poolHitCount - mLastPoolHitCount);
+        stats.poolMissCount += Math.max(0, poolMissCount - mLastPoolMissCount);
+        stats.droppedTickCount += Math.max(0, droppedStepCount - mLastDroppedStepCount);
+
+        mLastSpawnCount = spawnCount;
+        mLastPoolHitCount = poolHitCount;
+        mLastPoolMissCount = poolMissCount;
+        mLastDroppedStepCount = droppedStepCount;
+        mLastSimulationTimeNanos = simulationTimeNanos;
+
+        if (stats.frameCount >= mFrameStatsWindow){
+            mFrameStatsListener.onFrameStats(stats);
+            stats.reset();
+        }
+    }
+
+    /**
+     * Start the statistics over, e.g. after the simulation was replaced.
+     * */
+    private void resetFrameStats(){
+        mFrameStats.reset();
+        mSimulationTimeNanos = 0;
+
+        RainSimulationThread.Snapshot snapshot = mDrawnSnapshot;
+        if (snapshot != null){
+            //the simulation belongs to the simulation thread, only read what it published
+            mLastSpawnCount = snapshot.spawnCount;
+            mLastPoolHitCount = snapshot.poolHitCount;
+            mLastPoolMissCount = snapshot.poolMissCount;
+            mLastDroppedStepCount = snapshot.droppedStepCount;
+            mLastSimulationTimeNanos = snapshot.simulationTimeNanos;
+        }else if (mSimulationThread == null){
+            mLastSpawnCount = mSimulation.getSpawnCount();
+            mLastPoolHitCount = mSimulation.getPoolHitCount();
+            mLastPoolMissCount = mSimulation.getPoolMissCount();
+            mLastDroppedStepCount = mSimulation.getDroppedStepCount();
+            mLastSimulationTimeNanos = 0;
+        }else{
+            //nothing is published yet, the next recorded frame only takes the counters as the baseline
+            mFrameStatsBaselinePending = true;
+        }
+    }
+
+    private void beginTraceSection(String sectionName){
+        if (mTraceEnabled){
+            AndroidTracer.beginTraceSection(sectionName);
+        }
+    }
+
+    private void endTraceSection(){
+        if (mTraceEnabled){
+            AndroidTracer.endTraceSection();
+        }
+    }
+
+    /**
+     * Replace the invalid values with the defaults, by the rules of {@link RainConfig.Builder#sanitize()}.
+     * */
+    private void checkValue(){
+        setConfigValues(newConfigBuilder().sanitize());
+    }
+
+    /**
+     * Set the listener to receive the statistics of every frame, null to disable them.
+     * */
+    public void setFrameStatsListener(FrameStatsListener frameStatsListener) {
+        setFrameStatsListener(frameStatsListener, 1);
+    }
+
+    /**
+     * Set the listener to receive the statistics aggregated over a window of frames, null to disable them.
+     *
+     * @param windowFrames the number of frames per report
+     * */
+    public void setFrameStatsListener(FrameStatsListener frameStatsListener, int windowFrames) {
+        if (windowFrames < 1){
+            throw new IllegalArgumentException("The window must have at least one frame.");
+        }
+
+        this.mFrameStatsListener = frameStatsListener;
+        this.mFrameStatsWindow = windowFrames;
+        resetFrameStats();
+    }
+
+    /**
+     * Set whether to wrap the engine's phases into {@link Trace} sections and to publish the drop count
+     * as a trace counter, e.g. to inspect them with Perfetto or systrace.
+     * Works since {@link Build.VERSION_CODES#JELLY_BEAN_MR2}, the counter since {@link Build.VERSION_CODES#Q}.
+     * */
+    public void setTraceEnabled(boolean traceEnabled) {
+        this.mTraceEnabled = traceEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        applySimulationParams();
+    }
+
+    /**
+     * Whether the engine's phases are traced
+     * */
+    public boolean isTraceEnabled() {
+        return mTraceEnabled;
+    }
+
+    /**
+     * Get the ratio of the region invalidated by the last frame to the whole view, for diagnostics.
+     * The region is only narrowed down in a window drawn in software, it is 1 in a hardware accelerated one.
+     * */
+    public float getDirtyAreaRatio() {
+        return mDirtyAreaRatio;
+    }
+
+    /**
+     * Set the max bytes the pre-rasterized clouds may take, a cloud that does not fit
+     * is drawn with its path every frame. 0 disables the cache. Default is 4MB.
+     * */
+    public void setCloudCacheMaxBytes(int cloudCacheMaxBytes) {
+        this.mCloudCacheMaxBytes = Math.max(0, cloudCacheMaxBytes);
+        updateCloudSprites();
+        postInvalidate();
+    }
+
+    /**
+     * Get the max bytes the pre-rasterized clouds may take
+     * */
+    public int getCloudCacheMaxBytes() {
+        return mCloudCacheMaxBytes;
+    }
+
+    /**
+     * Set the extra depth layers of raindrops for parallax, none to remove them. They are drawn from the first
+     * to the last behind the view's own raindrops, each with one paint in one draw call whatever its number of
+     * raindrops. They share the color and the slope of the view's raindrops, are simulated on the UI thread
+     * in every engine mode and are drawn live in {@link #ENGINE_MODE_BAKED}.
+     * */
+    public void setRainLayers(RainLayer... rainLayers) {
+        mRainLayers = rainLayers.clone();
+        mLayerSimulations = new RainSimulation[mRainLayers.length];
+        mLayerPaints = new Paint[mRainLayers.length];
+        for (int i = 0; i < mRainLayers.length; i++){
+            mLayerSimulations[i] = new RainSimulation(mRainLayers[i].rainDropMaxNumber);
+
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setStrokeCap(Paint.Cap.ROUND);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(mRainLayers[i].rainDropSize);
+            mLayerPaints[i] = paint;
+        }
+
+        applyLayerColors();
+        applyLayerRandomSeeds();
+        applySimulationParams();
+        postInvalidate();
+    }
+
+    /**
+     * Get the extra depth layers of raindrops
+     * */
+    public RainLayer[] getRainLayers() {
+        return mRainLayers.clone();
+    }
+
+    /**
+     * Set the max bytes the baked rains of {@link #ENGINE_MODE_BAKED} may take in this process,
+     * the least recently used ones are evicted beyond it. Must be called on the main thread. Default is 8MB.
+     * It is a soft limit: the evicted frames a view is still drawing are only freed once the view moves on
+     * to other parameters or is released.
+     * */
+    public static void setBakedCacheMaxBytes(int bakedCacheMaxBytes) {
+        BakedRain.setCacheMaxBytes(bakedCacheMaxBytes);
+    }
+
+    /**
+     * Get the max bytes the baked rains may take in this process
+     * */
+    public static int getBakedCacheMaxBytes() {
+        return BakedRain.getCacheMaxBytes();
+    }
+
+    /**
+     * Let a {@link RainGroup} drive this view together with the group's other views, null to run
+     * this view's own clock. The view only takes part in the group while it is attached to a window.
+     * */
+    public void setRainGroup(RainGroup rainGroup) {
+        if (mRainGroup == rainGroup){
+            return;
+        }
+
+        boolean running = mRunning;
+        stop();
+
+        if (mRainGroup != null){
+            mRainGroup.remove(this);
+        }
+
+        mRainGroup = rainGroup;
+        if (mRainGroup != null && mAttachedToWindow){
+            mRainGroup.add(this);
+        }
+
+        if (running){
+            start();
+        }
+    }
+
+    /**
+     * Get the {@link RainGroup} driving this view, null if it runs its own clock
+     * */
+    public RainGroup getRainGroup() {
+        return mRainGroup;
+    }
+
+    /**
+     * Whether the animation is started
+     * */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Whether the animation is started and actually running, i.e. not paused because this view can not be seen
+     * */
+    public boolean isAnimating() {
+        return mAnimating;
+    }
+
+    /**
+     * Set the frame rate mode, {@link #FRAME_RATE_MODE_FULL}, {@link #FRAME_RATE_MODE_BALANCED}
+     * or {@link #FRAME_RATE_MODE_SAVER}. Default is {@link #FRAME_RATE_MODE_FULL}.
+     * */
+    public void setFrameRateMode(int frameRateMode) {
+        if (frameRateMode != FRAME_RATE_MODE_FULL
+                && frameRateMode != FRAME_RATE_MODE_BALANCED
+                && frameRateMode != FRAME_RATE_MODE_SAVER){
+            throw new IllegalArgumentException("Unknown frame rate mode: " + frameRateMode);
+        }
+
+        this.mFrameRateMode = frameRateMode;
+        mFrameRateGovernor.setMode(frameRateMode);
+    }
+
+    /**
+     * Get the frame rate mode
+     * */
+    public int getFrameRateMode() {
+        return mFrameRateMode;
+    }
+
+    /**
+     * Get the frame rate mode in effect, it saves more than {@link #getFrameRateMode()} while the system's
+     * power state requires it, see {@link #setFollowSystemPowerState(boolean)}
+     * */
+    public int getEffectiveFrameRateMode() {
+        return mFrameRateGovernor.getEffectiveMode();
+    }
+
+    /**
+     * Set whether to lower the frame rate mode by itself, to {@link #FRAME_RATE_MODE_SAVER} while the system
+     * is in power save mode (since {@link Build.VERSION_CODES#LOLLIPOP}) or severely throttled,
+     * and to {@link #FRAME_RATE_MODE_BALANCED} while moderately throttled (since {@link Build.VERSION_CODES#Q}).
+     * Default is false.
+     * */
+    public void setFollowSystemPowerState(boolean followSystemPowerState) {
+        mFrameRateGovernor.setFollowSystem(followSystemPowerState, mAttachedToWindow);
+    }
+
+    /**
+     * Whether the frame rate mode follows the system's power state
+     * */
+    public boolean isFollowSystemPowerState() {
+        return mFrameRateGovernor.isFollowSystem();
+    }
+
+    /**
+     * Replace the raindrops with the population they would have after raining for the duration,
+     * computed at once, so the rain does not have to fill up first. The rain is always full in {@link #ENGINE_MODE_ANALYTIC}.
+     * */
+    public void prewarm(int durationMillis) {
+        final RainSimulation simulation = mSimulation;
+        final long durationNanos = Math.max(0, durationMillis) * 1000000L;
+        Runnable prewarm = new Runnable() {
+            @Override
+            public void run() {
+                simulation.prewarm(durationNanos);
+            }
+        };
+
+        if (mSimulationThread != null){
+            flushSimulationParams();
+            mSimulationThread.post(prewarm);
+        }else{
+            prewarm.run();
+        }
+
+        for (RainSimulation layerSimulation : mLayerSimulations){
+            layerSimulation.prewarm(durationNanos);
+        }
+        wakeUp();
+        postInvalidate();
+    }
+
+    /**
+     * Jump to the time in millis, the clouds and, in {@link #ENGINE_MODE_ANALYTIC} and {@link #ENGINE_MODE_BAKED},
+     * the raindrops are shown as they are at that time. Seeking backwards and scrubbing are fine.
+     * In the other engine modes the raindrops keep falling from where they are.
+     * */
+    public void setTime(long timeMillis) {
+        mPlayTimeNanos = timeMillis * 1000000L;
+        mCloudTimeNanos = mPlayTimeNanos;
+        updateCloudAnimatorValues();
+        if (mEngineMode == ENGINE_MODE_ANALYTIC || mEngineMode == ENGINE_MODE_BAKED){
+            mSimulation.setTime(mPlayTimeNanos);
+            for (RainSimulation simulation : mLayerSimulations){
+                simulation.setTime(mPlayTimeNanos);
+            }
+        }
+        wakeUp();
+        invalidate();
+    }
+
+    /**
+     * Get the played time in millis, it goes on in {@link #FRAME_RATE_MODE_SAVER} while the clouds hold still
+     * */
+    public long getTime() {
+        return mPlayTimeNanos / 1000000L;
+    }
+
+    /**
+     * Set the millis to {@link #prewarm(int)} the rain for whenever this view is sized, 0 to start empty.
+     * Default is 0.
+     * */
+    public void setPrewarmDuration(int prewarmDuration) {
+        this.mPrewarmDuration = Math.max(0, prewarmDuration);
+    }
+
+    /**
+     * Get the millis the rain is prewarmed for whenever this view is sized
+     * */
+    public int getPrewarmDuration() {
+        return mPrewarmDuration;
+    }
+
+    /**
+     * Set whether to scale the raindrops down when the frames take too long, and back up when they are
+     * well within their time. The max number goes down to the bound of {@link #setAdaptiveQualityBounds(int)},
+     * the creation interval grows in proportion, and the lowest level also disables the anti-aliasing of the raindrops.
+     * Default is false.
+     *
+     * With a software layer or in a window drawn in software, the drawing and the simulation of this view
+     * on the UI thread are measured against {@link #setFrameBudget(float)}. Drawn by the hardware, onDraw()
+     * only records the drawing, so the whole frame of the window is measured against the display's vsync interval
+     * instead, by the frame metrics since {@link Build.VERSION_CODES#N}, by the vsyncs it was late for before.
+     * */
+    public void setAdaptiveQualityEnabled(boolean adaptiveQualityEnabled) {
+        this.mAdaptiveQualityEnabled = adaptiveQualityEnabled;
+        mQualityController.reset();
+        applyQualityLevel();
+        updateFrameMetrics();
+    }
+
+    /**
+     * Whether the adaptive quality is enabled
+     * */
+    public boolean isAdaptiveQualityEnabled() {
+        return mAdaptiveQualityEnabled;
+    }
+
+    /**
+     * Set the lowest max number of the raindrop the adaptive quality may go down to,
+     * the highest is {@link #getRainDropMaxNumber()}. Default is 0.
+     * */
+    public void setAdaptiveQualityBounds(int minRainDropNumber) {
+        this.mAdaptiveMinRainDropNumber = Math.max(0, minRainDropNumber);
+        applyQualityLevel();
+    }
+
+    /**
+     * Set the time the drawing and the simulation of a frame on the UI thread may take, in millis,
+     * for a software layer or a window drawn in software, where onDraw() does the drawing.
+     * A hardware drawn frame is measured as a whole against the vsync interval, see {@link #setAdaptiveQualityEnabled(boolean)}.
+     * Default is 6 millis.
+     * */
+    public void setFrameBudget(float frameBudgetMillis) {
+        if (frameBudgetMillis <= 0){
+            throw new IllegalArgumentException("The frame budget must be positive.");
+        }
+
+        mQualityController.setBudgetNanos((long) (frameBudgetMillis * 1000000L));
+    }
+
+    /**
+     * Get the frame budget in millis
+     * */
+    public float getFrameBudget() {
+        return mQualityController.getBudgetNanos() / 1000000f;
+    }
+
+    /**
+     * Get the current level of the adaptive quality, from 0 to {@link #getMaxQualityLevel()}
+     * */
+    public int getQualityLevel() {
+        return mAdaptiveQualityEnabled ? mQualityController.getLevel() : QualityController.MAX_LEVEL;
+    }
+
+    /**
+     * Get the level of the full quality
+     * */
+    public int getMaxQualityLevel() {
+        return QualityController.MAX_LEVEL;
+    }
+
+    /**
+     * Get the max number of the raindrop in effect at the current quality level
+     * */
+    public int getEffectiveRainDropMaxNumber() {
+        if (!mAdaptiveQualityEnabled){
+            return mRainDropMaxNumber;
+        }
+
+        int min = Math.min(mAdaptiveMinRainDropNumber, mRainDropMaxNumber);
+        return min + Math.round((mRainDropMaxNumber - min) * mQualityController.getFraction());
+    }
+
+    /**
+     * Get the creation interval of the raindrop in effect at the current quality level,
+     * it grows as the max number goes down so the rain thins out evenly
+     * */
+    public int getEffectiveRainDropCreationInterval() {
+        int maxNumber = getEffectiveRainDropMaxNumber();
+        if (!mAdaptiveQualityEnabled || maxNumber == mRainDropMaxNumber){
+            return mRainDropCreationInterval;
+        }
+
+        if (maxNumber == 0){
+            return mRainDropCreationInterval; //nothing is created anyway
+        }
+
+        return (int) ((long) mRainDropCreationInterval * mRainDropMaxNumber / maxNumber);
+    }
+
+    /**
+     * Whether the raindrops are anti-aliased at the current quality level
+     * */
+    public boolean isEffectiveAntiAlias() {
+        return getQualityLevel() > 0;
+    }
+
+    /**
+     * Set the render backend, {@link #RENDER_BACKEND_SOFTWARE}, {@link #RENDER_BACKEND_HARDWARE}
+     * or {@link #RENDER_BACKEND_AUTO}. Default is {@link #RENDER_BACKEND_AUTO}.
+     * */
+    public void setRenderBackend(int renderBackend) {
+        if (renderBackend != RENDER_BACKEND_SOFTWARE
+                && renderBackend != RENDER_BACKEND_HARDWARE
+                && renderBackend != RENDER_BACKEND_AUTO){
+            throw new IllegalArgumentException("Unknown render backend: " + renderBackend);
+        }
+
+        this.mRenderBackend = renderBackend;
+        applyRenderBackend();
+    }
+
+    /**
+     * Get the render backend
+     * */
+    public int getRenderBackend() {
+        return mRenderBackend;
+    }
+
+    /**
+     * Set the engine mode, {@link #ENGINE_MODE_UI_THREAD}, {@link #ENGINE_MODE_WORKER_THREAD},
+     * {@link #ENGINE_MODE_ANALYTIC} or {@link #ENGINE_MODE_BAKED}.
+     * Switching the mode restarts the raindrops.
+     * */
+    public void setEngineMode(int engineMode) {
+        if (engineMode != ENGINE_MODE_UI_THREAD && engineMode != ENGINE_MODE_WORKER_THREAD
+                && engineMode != ENGINE_MODE_ANALYTIC && engineMode != ENGINE_MODE_BAKED){
+            throw new IllegalArgumentException("Unknown engine mode: " + engineMode);
+        }
+
+        if (mEngineMode == engineMode){
+            return;
+        }
+
+        boolean running = mRunning;
+        stop();
+        quitSimulationThread();
+        mEngineMode = engineMode;
+        applySimulationParams();
+
+        if (running){
+            start();
+        }
+    }
+
+    /**
+     * Get the engine mode
+     * */
+    public int getEngineMode() {
+        return mEngineMode;
+    }
+
+    /**
+     * Set whether to draw all the raindrops with one {@link Canvas#drawLines(float[], int, int, Paint)} call,
+     * otherwise every raindrop is drawn with its own {@link Canvas#drawLine(float, float, float, float, Paint)} call.
+     * Default is true.
+     * */
+    public void setBatchDrawEnabled(boolean batchDrawEnabled) {
+        this.mBatchDrawEnabled = batchDrawEnabled;
+        postInvalidate();
+    }
+
+    /**
+     * Whether to draw all the raindrops with one drawLines call
+     * */
+    public boolean isBatchDrawEnabled() {
+        return mBatchDrawEnabled;
+    }
+
+    /**
+     * Get all the current parameters at once, a minimum may be greater than its maximum
+     * while only one of them is set yet.
+     * */
+    public RainConfig getConfig() {
+        return newConfigBuilder().sanitize();
+    }
+
+    /**
+     * Get a builder of the current values
+     * */
+    private RainConfig.Builder newConfigBuilder(){
+        return new RainConfig.Builder()
+                .setLeftCloudColor(mLeftCloudColor)
+                .setRightCloudColor(mRightCloudColor)
+                .setRainDropColor(mRainColor)
+                .setRainDropMaxNumber(mRainDropMaxNumber)
+                .setRainDropCreationInterval(mRainDropCreationInterval)
+                .setRainDropLength(mRainDropMinLength, mRainDropMaxLength)
+                .setRainDropSize(mRainDropSize)
+                .setRainDropSpeed(mRainDropMinSpeed, mRainDropMaxSpeed)
+                .setRainDropSlope(mRainDropSlope);
+    }
+
+    /**
+     * Replace all the parameters at once, they take effect together from the next frame.
+     * Can be called from any thread, it is applied on the UI thread.
+     *
+     * @throws IllegalArgumentException if a minimum is greater than its maximum
+     * */
+    public void applyConfig(final RainConfig config) {
+        config.checkRanges();
+        if (Looper.myLooper() != Looper.getMainLooper()){
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    applyConfig(config);
+                }
+            });
+            return;
+        }
+
+        boolean cloudsChanged = mLeftCloudColor != config.leftCloudColor
+                || mRightCloudColor != config.rightCloudColor;
+
+        setConfigValues(config);
+
+        mLeftCloudPaint.setColor(mLeftCloudColor);
+        mRightCloudPaint.setColor(mRightCloudColor);
+        mRainPaint.setColor(mRainColor);
+        mRainPaint.setStrokeWidth(mRainDropSize);
+        applyLayerColors();
+        if (cloudsChanged){
+            updateCloudSprites();
+        }
+
+        applySimulationParams();
+        postInvalidate();
+    }
+
+    /**
+     * Take the values of the config, without applying them.
+     * */
+    private void setConfigValues(RainConfig config){
+        mLeftCloudColor = config.leftCloudColor;
+        mRightCloudColor = config.rightCloudColor;
+        mRainColor = config.rainDropColor;
+        mRainDropMaxNumber = config.rainDropMaxNumber;
+        mRainDropCreationInterval = config.rainDropCreationInterval;
+        mRainDropMinLength = config.rainDropMinLength;
+        mRainDropMaxLength = config.rainDropMaxLength;
+        mRainDropSize = config.rainDropSize;
+        mRainDropMinSpeed = config.rainDropMinSpeed;
+        mRainDropMaxSpeed = config.rainDropMaxSpeed;
+        mRainDropSlope = config.rainDropSlope;
+    }
+
+    /**
+     * Set the seed of the raindrops' random positions, lengths and speeds, so the same seed
+     * and the same parameters always spawn the same raindrops, e.g. for screenshot tests.
+     * */
+    public void setRandomSeed(long randomSeed) {
+        this.mRandomSeed = randomSeed;
+        this.mHasRandomSeed = true;
+        applyRandomSeed();
+        updateBakedRain();
+    }
+
+    /**
+     * Set the color of the left cloud
+     * */
+    public void setLeftCloudColor(int leftCloudColor) {
+        this.mLeftCloudColor = leftCloudColor;
+        mLeftCloudPaint.setColor(mLeftCloudColor);
+        updateCloudSprites();
+        postInvalidate();
+    }
+
+    /**
+     * Get the color of the left cloud
+     * */
+    public int getLeftCloudColor() {
+        return mLeftCloudColor;
+    }
+
+
+    /**
+     * Set the color of the left cloud
+     * */
+    public void setRightCloudColor(int rightCloudColor) {
+        this.mRightCloudColor = rightCloudColor;
+        mRightCloudPaint.setColor(mRightCloudColor);
+        updateCloudSprites();
+        postInvalidate();
+    }
+
+    /**
+     * Get the color of the right cloud
+     * */
+    public int getRightCloudColor() {
+        return mRightCloudColor;
+    }
+
+    /**
+     * Set the color of all the raindrops
+     * */
+    public void setRainDropColor(int rainDropColor) {
+        this.mRainColor = rainDropColor;
+        mRainPaint.setColor(mRainColor);
+        applyLayerColors();
+        postInvalidate();
+    }
+
+    /**
+     * Get the color of all the raindrops
+     * */
+    public int getRainDropColor() {
+        return mRainColor;
+    }
+
+    /**
+     * Get the max number of the raindrop
+     * */
+    public int getRainDropMaxNumber() {
+        return mRainDropMaxNumber;
+    }
+
+    /**
+     * Set the max number of the raindrop
+     * */
+    public void setRainDropMaxNumber(int rainDropMaxNumber) {
+        this.mRainDropMaxNumber = rainDropMaxNumber;
+        checkValue();
+        applySimulationParams();
+    }
+
+    /**
+     * Get the creation interval of the raindrop
+     * */
+    public int getRainDropCreationInterval() {
+        return mRainDropCreationInterval;
+    }
+
+    /**
+     * Get the creation interval of the raindrop
+     * */
+    public void setRainDropCreationInterval(int rainDropCreationInterval) {
+        this.mRainDropCreationInterval = rainDropCreationInterval;
+        checkValue();
+        applySimulationParams();
+    }
+
+    /**
+     * Get the min length of the raindrop
+     * */
+    public int getRainDropMinLength() {
+        return mRainDropMinLength;
+    }
+
+    /**
+     * Set the min length of the raindrop
+     * */
+    public void setRainDropMinLength(int rainDropMinLength) {
+        this.mRainDropMinLength = rainDropMinLength;
+        checkValue();
+        applySimulationParams();
+    }
+
+    /**
+     * Get the max length of the raindrop
      * */
     public int getRainDropMaxLength() {
         return mRainDropMaxLength;
     }
 
     /**
-     * Set the max length of the {@link RainDrop}
+     * Set the max length of the raindrop
      * */
     public void setRainDropMaxLength(int rainDropMaxLength) {
         this.mRainDropMaxLength = rainDropMaxLength;
-        checkRainDropLengthValue();
+        checkValue();
+        applySimulationParams();
     }
 
     /**
-     * Get the size of the {@link RainDrop}
+     * Get the size of the raindrop
      * */
     public int getRainDropSize() {
         return mRainDropSize;
     }
 
     /**
-     * Set the size of the {@link RainDrop}
+     * Set the size of the raindrop
      * */
     public void setRainDropSize(int rainDropSize) {
         this.mRainDropSize = rainDropSize;
-        checkRainDropSizeValue();
+        checkValue();
+        mRainPaint.setStrokeWidth(mRainDropSize);
+        updateBakedRain();
+        postInvalidate();
     }
 
     /**
-     * Get the max speed of the {@link RainDrop}
+     * Get the max speed of the raindrop
      * */
     public float getRainDropMaxSpeed() {
         return mRainDropMaxSpeed;
     }
 
     /**
-     * Set the max speed of the {@link RainDrop}
+     * Set the max speed of the raindrop in pixels per 20 millis
      * */
     public void setRainDropMaxSpeed(float rainDropMaxSpeed) {
         this.mRainDropMaxSpeed = rainDropMaxSpeed;
-        checkRainDropSpeedValue();
+        checkValue();
+        applySimulationParams();
     }
 
     /**
-     * Get the minimum speed of the {@link RainDrop}
+     * Get the minimum speed of the raindrop
      * */
     public float getRainDropMinSpeed() {
         return mRainDropMinSpeed;
     }
 
     /**
-     * Set the minimum speed of the {@link RainDrop}
+     * Set the minimum speed of the raindrop in pixels per 20 millis
      * */
     public void setRainDropMinSpeed(float rainDropMinSpeed) {
         this.mRainDropMinSpeed = rainDropMinSpeed;
-        checkRainDropSpeedValue();
+        checkValue();
+        applySimulationParams();
     }
 
     /**
-     * Get the slope of the {@link RainDrop}
+     * Get the slope of the raindrop
      * */
     public float getRainDropSlope() {
         return mRainDropSlope;
     }
 
     /**
-     * Set the slope of the {@link RainDrop}
+     * Set the slope of the raindrop
      * */
     public void setRainDropSlope(float rainDropSlope) {
         this.mRainDropSlope = rainDropSlope;
-        checkRainDropSlopeValue();
+        checkValue();
+        applySimulationParams();
+    }
+
+    /**
+     * Receives the statistics of the rain engine, see {@link #setFrameStatsListener(FrameStatsListener, int)}.
+     * */
+    public interface FrameStatsListener {
+        /**
+         * Called on the UI thread after the last frame of every window is drawn.
+         *
+         * @param stats the statistics of the window, reused after this call returns
+         * */
+        void onFrameStats(FrameStats stats);
+    }
+
+    /**
+     * The statistics of a window of frames.
+     * */
+    public static final class FrameStats {
+        int frameCount;
+        long simulationTimeNanos;
+        long drawTimeNanos;
+        int activeDropCount;
+        long spawnCount;
+        long poolHitCount;
+        long poolMissCount;
+        long droppedTickCount;
+
+        /**
+         * Get the number of frames in this window
+         * */
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Get the total time spent stepping the simulation, on the simulation thread in
+         * {@link #ENGINE_MODE_WORKER_THREAD}
+         * */
+        public long getSimulationTimeNanos() {
+            return simulationTimeNanos;
+        }
+
+        /**
+         * Get the total time spent in {@link #onDraw(Canvas)}
+         * */
+        public long getDrawTimeNanos() {
+            return drawTimeNanos;
+        }
+
+        /**
+         * Get the number of raindrops alive in the last frame
+         * */
+        public int getActiveDropCount() {
+            return activeDropCount;
+        }
+
+        /**
+         * Get the number of raindrops spawned
+         * */
+        public long getSpawnCount() {
+            return spawnCount;
+        }
+
+        /**
+         * Get the number of spawned raindrops that reused the drop store's capacity
+         * */
+        public long getPoolHitCount() {
+            return poolHitCount;
+        }
+
+        /**
+         * Get the number of spawned raindrops that had to grow the drop store
+         * */
+        public long getPoolMissCount() {
+            return poolMissCount;
+        }
+
+        /**
+         * Get the number of simulation ticks skipped to catch up after stalls
+         * */
+        public long getDroppedTickCount() {
+            return droppedTickCount;
+        }
+
+        void reset() {
+            frameCount = 0;
+            simulationTimeNanos = 0;
+            drawTimeNanos = 0;
+            activeDropCount = 0;
+            spawnCount = 0;
+            poolHitCount = 0;
+            poolMissCount = 0;
+            droppedTickCount = 0;
+        }
+    }
+
+    /**
+     * Reports the total duration of the window's frames to the view's adaptive quality,
+     * keeps the frame metrics API out of the view, so it loads on every API level.
+     * */
+    @TargetApi(Build.VERSION_CODES.N)
+    private static class WindowFrameMetrics {
+        static Object register(Window window, final RainyView view) {
+            Window.OnFrameMetricsAvailableListener listener = new Window.OnFrameMetricsAvailableListener() {
+                @Override
+                public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+                    view.onWindowFrame(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+                }
+            };
+            window.addOnFrameMetricsAvailableListener(listener, view.getHandler()); //delivered on the UI thread
+            return listener;
+        }
+
+        static void unregister(Window window, Object listener) {
+            window.removeOnFrameMetricsAvailableListener((Window.OnFrameMetricsAvailableListener) listener);
+        }
+    }
+
+    /**
+     * Forwards the simulation's phases and the view's own sections to {@link Trace},
+     * keeps the tracing API out of the view, so it loads on every API level.
+     * */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static class AndroidTracer implements RainSimulation.Tracer {
+        @Override
+        public void beginSection(String sectionName) {
+            beginTraceSection(sectionName);
+        }
+
+        @Override
+        public void endSection() {
+            endTraceSection();
+        }
+
+        static void beginTraceSection(String sectionName) {
+            Trace.beginSection(sectionName);
+        }
+
+        static void endTraceSection() {
+            Trace.endSection();
+        }
+
+        /**
+         * Publish a counter, since {@link Build.VERSION_CODES#Q}.
+         * */
+        @TargetApi(Build.VERSION_CODES.Q)
+        static void setCounter(String counterName, long counterValue) {
+            Trace.setCounter(counterName, counterValue);
+        }
     }
 }
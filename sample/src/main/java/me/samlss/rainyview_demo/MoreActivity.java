@@ -7,6 +7,7 @@ import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
 
+import me.samlss.view.RainGroup;
 import me.samlss.view.RainyView;
 
 public class MoreActivity extends AppCompatActivity {
@@ -31,6 +32,11 @@ public class MoreActivity extends AppCompatActivity {
         rainyView1.setRainDropMinSpeed(1);
         rainyView1.setRainDropSlope(-4);
         rainyView1.setRainDropCreationInterval(10);
+
+        //drive both views from one clock
+        RainGroup rainGroup = new RainGroup();
+        rainGroup.attach(rainyView1);
+        rainGroup.attach(rainyView2);
     }
 
     @Override